@@ -0,0 +1,112 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tunable agent constants, stored as a properties file. Keys are the agent
+ * class name and field name, e.g. "MCTSAgent.rate". The no argument agent
+ * constructors read the default file, so tuned values apply in tournaments
+ * without code changes.
+ *
+ **/
+public class AgentParameters {
+
+    // FIELDS
+    public static final String FILE_PROPERTY = "threeChess.params";
+    public static final String DEFAULT_FILE = "agents.properties";
+    private static AgentParameters defaults;
+    private final Properties properties = new Properties();
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates an empty parameter set, for which every agent uses its built in
+     * values.
+     **/
+    public AgentParameters() {
+    }
+
+    /**
+     * Loads parameters from a properties file.
+     *
+     * @param path the file to read
+     * @return the loaded parameters
+     * @throws IOException if the file cannot be read
+     **/
+    public static AgentParameters load(String path) throws IOException {
+        AgentParameters params = new AgentParameters();
+        try (Reader reader = new BufferedReader(new FileReader(path))) {
+            params.properties.load(reader);
+        }
+        return params;
+    }
+
+    /**
+     * Returns the parameters used by the no argument constructors: the file
+     * named by the threeChess.params system property, else agents.properties in
+     * the working directory, else an empty set. The file is read once.
+     *
+     * @return the shared default parameters
+     **/
+    public static synchronized AgentParameters getDefault() {
+        if (defaults == null) {
+            String path = System.getProperty(FILE_PROPERTY, DEFAULT_FILE);
+            defaults = new AgentParameters();
+            if (new File(path).isFile()) {
+                try {
+                    defaults = load(path);
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+            }
+        }
+        return defaults;
+    }
+
+    // METHODS
+
+    /**
+     * Writes the parameters to a properties file.
+     *
+     * @param path    the file to write
+     * @param comment header comment for the file
+     * @throws IOException if the file cannot be written
+     **/
+    public void store(String path, String comment) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(path))) {
+            properties.store(writer, comment);
+        }
+    }
+
+    public double getDouble(String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Double.parseDouble(value.trim());
+    }
+
+    public int getInt(String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : (int) Math.round(Double.parseDouble(value.trim()));
+    }
+
+    public void set(String key, double value) {
+        properties.setProperty(key, Double.toString(value));
+    }
+
+    public void set(String key, int value) {
+        properties.setProperty(key, Integer.toString(value));
+    }
+
+    /**
+     * @return an independent copy of these parameters
+     **/
+    public AgentParameters copy() {
+        AgentParameters params = new AgentParameters();
+        params.properties.putAll(properties);
+        return params;
+    }
+
+    public String toString() {
+        return new TreeMap<Object, Object>(properties).toString();
+    }
+}
@@ -0,0 +1,159 @@
+package threeChess.agents;
+
+import java.lang.management.ManagementFactory;
+import threeChess.*;
+
+/**
+ * Allocation regression check for the search hot paths: bytes allocated per
+ * MCTS playout, per getNextMoves call and per MaxN node, counted by the JVM's
+ * per-thread allocation counter. Garbage made while searching turns into GC
+ * pauses on the move clock, so each path has a budget, and the check exits
+ * with status 1 if any is exceeded, failing the build step that runs it.
+ *
+ * Budgets are read from the agent parameters (see AgentParameters), keys
+ * AllocationCheck.playoutBytes, AllocationCheck.nextMovesBytes and
+ * AllocationCheck.nodeBytes. Each path is run once to warm up and then
+ * measured, with the fixed cost of setting up a search spread over its
+ * playouts or nodes.
+ *
+ * <pre>
+ * java threeChess.agents.AllocationCheck [positions]
+ * </pre>
+ *
+ **/
+public class AllocationCheck {
+
+    // FIELDS
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+    private static final int PLAYOUTS = 5000;
+    private static final int NEXT_MOVES_CALLS = 200;
+    // a playout boxes its first move's key and Position pair for the move
+    // statistics; getNextMoves builds a FastBoard, about 72KB, and a map; MaxN
+    // nodes allocate nothing
+    private static double playoutBytes = 96;
+    private static double nextMovesBytes = 96 * 1024;
+    private static double nodeBytes = 1;
+    private static int sink;
+
+    /**
+     * @param args optional number of positions to measure from
+     **/
+    public static void main(String[] args) throws Exception {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        AgentParameters params = AgentParameters.getDefault();
+        playoutBytes = params.getDouble("AllocationCheck.playoutBytes", playoutBytes);
+        nextMovesBytes = params.getDouble("AllocationCheck.nextMovesBytes", nextMovesBytes);
+        nodeBytes = params.getDouble("AllocationCheck.nodeBytes", nodeBytes);
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("allocation counting not supported by this JVM");
+            System.exit(1);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        Board[] boards = positions(positions);
+        MCTSAgent mcts = new MCTSAgent(params);
+        MaxNAgent maxN = new MaxNAgent(params);
+        boolean passed = true;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up, only the second is judged
+            boolean judged = round == 1;
+            double playout = 0, nextMoves = 0, node = 0;
+            for (Board board : boards) {
+                playout = Math.max(playout, perPlayout(mcts, board));
+                nextMoves = Math.max(nextMoves, perNextMoves(board));
+                node = Math.max(node, perNode(maxN, board));
+            }
+            if (judged) {
+                passed &= report("MCTS playout", playout, playoutBytes);
+                passed &= report("getNextMoves call", nextMoves, nextMovesBytes);
+                passed &= report("MaxN node", node, nodeBytes);
+            }
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return true if the measurement is within budget
+     **/
+    private static boolean report(String path, double bytes, double budget) {
+        boolean within = bytes <= budget;
+        System.out.println(String.format("%-18s %10.1f bytes, budget %10.1f %s", path, bytes, budget,
+                within ? "ok" : "OVER BUDGET"));
+        return within;
+    }
+
+    /**
+     * @return bytes allocated per playout of a fixed count MCTS search, the
+     *         statistics and tree made beforehand
+     **/
+    private static double perPlayout(MCTSAgent agent, Board board) {
+        FastBoard root = agent.searchBoard(board);
+        MCTSAgent.SearchStats stats = new MCTSAgent.SearchStats();
+        agent.attachTree(stats);
+        long start = allocated();
+        agent.search(root, stats, PLAYOUTS);
+        long bytes = allocated() - start;
+        return (double) bytes / Math.max(1, stats.playouts);
+    }
+
+    /**
+     * @return bytes allocated per call of the agents' move list
+     **/
+    private static double perNextMoves(Board board) {
+        long start = allocated();
+        for (int i = 0; i < NEXT_MOVES_CALLS; i++)
+            sink += MaxNAgent.getNextMoves(board).size();
+        return (double) (allocated() - start) / NEXT_MOVES_CALLS;
+    }
+
+    /**
+     * @return bytes allocated per node, quiescence nodes included, of a MaxN
+     *         search of every root move, the board and search stack made
+     *         beforehand and the transposition table emptied so that every
+     *         node is searched
+     **/
+    private static double perNode(MaxNAgent agent, Board board) {
+        TranspositionTable.getShared().clear();
+        FastBoard root = new FastBoard(board);
+        MaxNAgent.SearchStack stack = agent.newSearchStack();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        int count = root.generateMoves(moves);
+        long start = allocated();
+        for (int i = 0; i < count; i++) {
+            root.make(moves[i]);
+            sink += agent.maxN(root, 0, stack)[0];
+            root.unmake();
+        }
+        long bytes = allocated() - start;
+        return (double) bytes / Math.max(1, stack.nodes + stack.quiescenceNodes);
+    }
+
+    /**
+     * @return positions reached by random play, with moves left to search
+     **/
+    private static Board[] positions(int count) throws Exception {
+        FastRandom random = FastRandom.current();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        Board[] boards = new Board[count];
+        for (int p = 0; p < count;) {
+            Board board = new Board(0);
+            int plies = random.nextInt(40);
+            for (int i = 0; i < plies && !board.gameOver(); i++) {
+                int moveCount = new FastBoard(board).generateMoves(moves);
+                if (moveCount == 0)
+                    break;
+                Position[] move = FastBoard.toPositions(moves[random.nextInt(moveCount)]);
+                board.move(move[0], move[1]);
+            }
+            if (!board.gameOver() && new FastBoard(board).generateMoves(moves) > 0)
+                boards[p++] = board;
+        }
+        return boards;
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,416 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import com.sun.net.httpserver.*;
+import threeChess.*;
+
+/**
+ * One analysis engine shared by every game in the process, in place of a
+ * separate agent, with its own threads and cold caches, per game. Positions
+ * are submitted with a time budget and an engine name, and a move comes back
+ * when the budget is spent.
+ *
+ * Searches run on a fixed pool of worker threads taking jobs from one queue.
+ * MCTS searches are run in slices of sliceMillis and go to the back of the
+ * queue after each, so with more games than workers every game advances in
+ * turn and none waits behind a long search; a job ends at its deadline
+ * wherever it is in the queue, so the budget is wall clock time as the game
+ * clock sees it. MaxN (fixed depth, stopped at the deadline, without the
+ * late game depth cut or opponent pruning, which depend on the game) and BRS
+ * (iterative deepening to the deadline) cannot be suspended and run as a
+ * single slice, so they hold a worker for their budget at most.
+ *
+ * Results are kept in a cache shared by all games, keyed by engine and the
+ * canonical Zobrist key of the position with the move stored in canonical
+ * rotation, so a position met again in any game and from any colour's seat,
+ * as the openings are, is answered at once if it was searched for at least as
+ * long. MCTS trees come from a fixed set shared by all jobs, so memory does
+ * not grow with the number of games.
+ *
+ * The service can also listen on the loopback interface for other processes:
+ * GET /move?engine=MCTS&amp;budget=500&amp;moves=BD2-BD4,GG1-GF3 replays the
+ * moves from the initial position and answers with a move such as "RB1-RC3".
+ *
+ **/
+public class AnalysisService {
+
+    // FIELDS
+    public static final String THREADS_PROPERTY = "threeChess.analysis.threads";
+    public static final String[] ENGINES = { "MCTS", "MaxN", "BRS" };
+    private static final int CACHE_SIZE = 100000;
+    private static AnalysisService shared;
+
+    private final long sliceNanos;
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final MCTSAgent mcts;
+    private final ThreadLocal<MaxNAgent> maxN;
+    private final ThreadLocal<BRSAgent> brs;
+    private final ArrayBlockingQueue<MCTSTree> trees;
+    private final Map<String, Result> cache = Collections.synchronizedMap(new LinkedHashMap<String, Result>(16,
+            0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+    private HttpServer server;
+    private volatile boolean running = true;
+
+    // metrics
+    private final LongAdder jobs = new LongAdder();
+    private final LongAdder slices = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    // CONSTRUCTORS
+
+    /**
+     * @param threads     number of worker threads
+     * @param sliceMillis time a search runs before other jobs get a turn
+     * @param params      settings of the engines
+     **/
+    public AnalysisService(int threads, int sliceMillis, AgentParameters params) {
+        this.sliceNanos = sliceMillis * 1000000L;
+        mcts = new MCTSAgent(params);
+        // a MaxN answer is cached for every game as searched to a fixed depth,
+        // so it must not depend on the clock or on the game it was asked by:
+        // no late game depth cut, and no opponent model to prune by
+        AgentParameters maxNParams = params.copy();
+        maxNParams.set("MaxNAgent.lateTimeLimit", 0);
+        maxNParams.set("MaxNAgent.opponentModel", 0);
+        maxN = ThreadLocal.withInitial(() -> {
+            MaxNAgent agent = new MaxNAgent(maxNParams);
+            agent.setPondering(false);
+            return agent;
+        });
+        brs = ThreadLocal.withInitial(() -> new BRSAgent(params));
+        int treeNodes = params.getInt("MCTSAgent.treeNodes", 100000);
+        int treeCount = params.getInt("AnalysisService.trees", 2 * threads);
+        trees = new ArrayBlockingQueue<MCTSTree>(Math.max(1, treeCount));
+        if (treeNodes > 0)
+            for (int i = 0; i < treeCount; i++)
+                trees.add(new MCTSTree(treeNodes, params.getInt("MCTSAgent.recycle", 1) != 0));
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "analysis-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the service shared by the process, started on first use with
+     *         one worker per processor (or the threeChess.analysis.threads
+     *         system property) and the default agent parameters
+     **/
+    public static synchronized AnalysisService getShared() {
+        if (shared == null) {
+            int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            AgentParameters params = AgentParameters.getDefault();
+            shared = new AnalysisService(threads, params.getInt("AnalysisService.sliceMillis", 20), params);
+        }
+        return shared;
+    }
+
+    // METHODS
+
+    /**
+     * Queues a position for analysis.
+     *
+     * @param board        the position, copied before returning
+     * @param engine       one of ENGINES
+     * @param budgetMillis thinking time, counted from now
+     * @return the move, once the budget is spent
+     **/
+    public CompletableFuture<Position[]> submit(Board board, String engine, long budgetMillis) {
+        if (!Arrays.asList(ENGINES).contains(engine))
+            throw new IllegalArgumentException("unknown engine " + engine);
+        Board copy;
+        try {
+            copy = (Board) board.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        FastBoard root = new FastBoard(copy);
+        Job job = new Job(copy, root, engine, budgetMillis);
+        Result cached = cache.get(job.key);
+        if (cached != null && cached.budget >= budgetMillis) {
+            // the key does not cover castling rights, so check the move
+            Position[] move = FastBoard.toPositions(Symmetry.fromCanonical(cached.move, root.getTurn()));
+            if (copy.isLegalMove(move[0], move[1])) {
+                cacheHits.increment();
+                job.result.complete(move);
+                return job.result;
+            }
+        }
+        jobs.increment();
+        queue.add(job);
+        return job.result;
+    }
+
+    /**
+     * Analyses a position and waits for the move.
+     *
+     * @return the move, or null if the position has no legal move
+     **/
+    public Position[] analyse(Board board, String engine, long budgetMillis) {
+        try {
+            return submit(board, engine, budgetMillis).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.out.println(e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * A worker: takes the job at the head of the queue, runs one slice of it,
+     * and puts it back at the tail if it is not finished.
+     **/
+    private void work() {
+        while (running) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                slices.increment();
+                if (job.slice())
+                    queue.add(job);
+            } catch (RuntimeException e) {
+                job.release();
+                job.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and the endpoint. Queued jobs are abandoned.
+     **/
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers)
+            worker.interrupt();
+        if (server != null)
+            server.stop(0);
+        for (Job job : queue)
+            job.result.cancel(false);
+        queue.clear();
+    }
+
+    // LOOPBACK ENDPOINT
+
+    /**
+     * Starts answering GET /move on the loopback interface.
+     *
+     * @param port the port, or 0 for any free port
+     * @return the port listened on
+     * @throws IOException if the port cannot be bound
+     **/
+    public synchronized int listen(int port) throws IOException {
+        if (server == null) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/move", this::handleMove);
+            server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "analysis-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+        }
+        return server.getAddress().getPort();
+    }
+
+    private void handleMove(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String reply;
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Board board = replay(query.getOrDefault("moves", ""));
+            Position[] move = analyse(board, query.getOrDefault("engine", "MCTS"),
+                    Long.parseLong(query.getOrDefault("budget", "1000")));
+            reply = move == null ? "none" : move[0] + "-" + move[1];
+        } catch (RuntimeException | ImpossiblePositionException e) {
+            status = 400;
+            reply = e.toString();
+        }
+        byte[] body = (reply + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> values = new HashMap<String, String>();
+        if (query == null)
+            return values;
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0)
+                values.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    /**
+     * Rebuilds a game from its moves, written as "BD2-BD4" and separated by
+     * commas or spaces.
+     **/
+    static Board replay(String moves) throws ImpossiblePositionException {
+        Board board = new Board(Integer.MAX_VALUE / 2);
+        for (String move : moves.trim().split("[, ]+")) {
+            if (move.isEmpty())
+                continue;
+            String[] ends = move.split("-");
+            if (ends.length != 2)
+                throw new IllegalArgumentException("bad move " + move);
+            board.move(Position.valueOf(ends[0]), Position.valueOf(ends[1]));
+        }
+        return board;
+    }
+
+    // METRICS
+
+    /**
+     * @return searches queued, not counting cache hits
+     **/
+    public long getJobs() {
+        return jobs.sum();
+    }
+
+    public long getSlices() {
+        return slices.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    // SUPPLEMENTARY STRUCTURE
+
+    /**
+     * One submitted search and the state it keeps between slices.
+     **/
+    private class Job {
+        final Board board;
+        final FastBoard root;
+        final String engine;
+        final long budget;
+        final long deadline;
+        final String key;
+        final CompletableFuture<Position[]> result = new CompletableFuture<Position[]>();
+        MCTSAgent.SearchStats stats;
+        MCTSTree tree;
+
+        Job(Board board, FastBoard root, String engine, long budget) {
+            this.board = board;
+            this.root = root;
+            this.engine = engine;
+            this.budget = budget;
+            this.deadline = System.nanoTime() + budget * 1000000L;
+            this.key = engine + ":" + Long.toHexString(Zobrist.canonicalHash(root));
+        }
+
+        /**
+         * Runs the search for one slice, or to the end if it cannot be
+         * suspended, completing the result when done.
+         *
+         * @return true if the job should be queued again
+         **/
+        boolean slice() {
+            if (result.isDone()) {
+                release();
+                return false;
+            }
+            int move;
+            // a fixed depth search that finished answers for any budget
+            long searched = budget;
+            switch (engine) {
+                case "MCTS":
+                    if (stats == null) {
+                        stats = new MCTSAgent.SearchStats();
+                        tree = trees.poll();
+                        if (tree != null) {
+                            tree.clear();
+                            stats.tree = tree;
+                        }
+                    }
+                    long now = System.nanoTime();
+                    boolean legal = mcts.searchUntil(root, stats, Math.min(now + sliceNanos, deadline));
+                    if (legal && System.nanoTime() < deadline)
+                        return true;
+                    move = mcts.bestMove(stats);
+                    release();
+                    break;
+                case "MaxN":
+                    MaxNAgent agent = maxN.get();
+                    agent.setDeadline(deadline);
+                    Position[] chosen;
+                    try {
+                        chosen = agent.playMove(board);
+                    } finally {
+                        agent.setDeadline(0);
+                    }
+                    move = FastBoard.fromPositions(chosen[0], chosen[1]);
+                    if (!agent.isCutShort())
+                        searched = Long.MAX_VALUE;
+                    break;
+                default:
+                    int[] moves = new int[FastBoard.MAX_MOVES];
+                    int count = root.generateMoves(moves);
+                    move = count == 0 ? FastBoard.NULL_MOVE
+                            : moves[brs.get().search(root, moves, count, System.currentTimeMillis()
+                                    + Math.max(0, (deadline - System.nanoTime()) / 1000000))];
+                    break;
+            }
+            if (move < 0) {
+                result.complete(null);
+                return false;
+            }
+            cache.put(key, new Result(Symmetry.toCanonical(move, root.getTurn()), searched));
+            result.complete(FastBoard.toPositions(move));
+            return false;
+        }
+
+        /**
+         * Returns the job's tree to the shared set.
+         **/
+        void release() {
+            if (tree != null) {
+                stats.tree = null;
+                trees.offer(tree);
+                tree = null;
+            }
+        }
+    }
+
+    /**
+     * A cached answer: the move in the canonical rotation, and the budget it
+     * was searched with, or Long.MAX_VALUE if the search did not use all it
+     * was allowed and so would not change with a longer one.
+     **/
+    private static class Result {
+        final int move;
+        final long budget;
+
+        Result(int move, long budget) {
+            this.move = move;
+            this.budget = budget;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package threeChess.agents;
+
+import java.util.*;
+import threeChess.*;
+
+/**
+ * A snapshot of an anytime search, as published by AnytimeAnalysis: the move
+ * the search would play now, its score for each colour, how far the search
+ * has got and the principal variation. Scores are expected results between 0
+ * and 1 for MCTS and utilities for MaxN.
+ *
+ **/
+public class AnalysisUpdate {
+
+    // FIELDS
+    private final String engine;
+    private final Position[] bestMove;
+    private final double[] scores;
+    private final int depth;
+    private final long playouts;
+    private final long nodes;
+    private final List<Position[]> pv;
+    private final long elapsedMillis;
+    private final boolean finished;
+
+    /**
+     * @param engine        name of the search
+     * @param bestMove      the move to play, or null if none is known yet
+     * @param scores        score of the best move by colour ordinal
+     * @param depth         plies searched (MaxN) or the length of the principal
+     *                      variation (MCTS)
+     * @param playouts      playouts so far, 0 for MaxN
+     * @param nodes         nodes so far, 0 for MCTS
+     * @param pv            packed moves of the principal variation
+     * @param pvLength      number of moves in pv
+     * @param elapsedMillis time since the search started
+     * @param finished      true for the last update of a search
+     **/
+    AnalysisUpdate(String engine, int bestMove, double[] scores, int depth, long playouts, long nodes, int[] pv,
+            int pvLength, long elapsedMillis, boolean finished) {
+        this.engine = engine;
+        this.bestMove = bestMove < 0 ? null : FastBoard.toPositions(bestMove);
+        this.scores = scores.clone();
+        this.depth = depth;
+        this.playouts = playouts;
+        this.nodes = nodes;
+        List<Position[]> line = new ArrayList<Position[]>();
+        for (int i = 0; i < pvLength; i++)
+            line.add(FastBoard.toPositions(pv[i]));
+        this.pv = Collections.unmodifiableList(line);
+        this.elapsedMillis = elapsedMillis;
+        this.finished = finished;
+    }
+
+    // METHODS
+
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the move the search would play now, or null if none is known
+     **/
+    public Position[] getBestMove() {
+        return bestMove == null ? null : bestMove.clone();
+    }
+
+    /**
+     * @return score of the best move for a colour
+     **/
+    public double getScore(Colour colour) {
+        return scores[colour.ordinal()];
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the principal variation, starting with the best move
+     **/
+    public List<Position[]> getPv() {
+        return pv;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true if the search has ended, by finishing or being cancelled
+     **/
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String toString() {
+        StringBuilder line = new StringBuilder(engine).append(finished ? " final" : "").append(" ")
+                .append(elapsedMillis).append("ms depth ").append(depth);
+        if (playouts > 0)
+            line.append(" playouts ").append(playouts);
+        if (nodes > 0)
+            line.append(" nodes ").append(nodes);
+        line.append(" best ").append(bestMove == null ? "none" : bestMove[0] + "-" + bestMove[1]).append(" scores");
+        for (Colour colour : Colour.values())
+            line.append(String.format(" %s %.3f", colour, scores[colour.ordinal()]));
+        line.append(" pv");
+        for (Position[] move : pv)
+            line.append(" ").append(move[0]).append("-").append(move[1]);
+        return line.toString();
+    }
+}
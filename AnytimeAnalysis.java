@@ -0,0 +1,239 @@
+package threeChess.agents;
+
+import java.util.concurrent.*;
+import threeChess.*;
+
+/**
+ * An anytime view of an MCTS or MaxN search, for operators and tooling that
+ * need to watch a search or stop it early rather than wait for playMove. The
+ * search runs on its own thread and publishes AnalysisUpdate snapshots
+ * through java.util.concurrent.Flow at most once per interval, and a final
+ * snapshot when it ends.
+ *
+ * Publishing does not slow the search: MCTS runs its playouts in chunks that
+ * end at the next update time, so nothing is checked per playout, and MaxN
+ * reports between root moves. Snapshots are offered to subscribers without
+ * blocking and dropped for any subscriber whose buffer is full; delivery runs
+ * on the publisher's executor, not the search thread.
+ *
+ * cancel() stops the search and returns the best move of the latest snapshot
+ * at once, without waiting for the search thread to notice.
+ *
+ * <pre>
+ * AnytimeAnalysis analysis = AnytimeAnalysis.mcts(board, 5000, 250);
+ * analysis.subscribe(subscriber);
+ * analysis.start();
+ * ...
+ * Position[] move = analysis.cancel();
+ * </pre>
+ *
+ **/
+public class AnytimeAnalysis implements Flow.Publisher<AnalysisUpdate> {
+
+    // FIELDS
+    private static final int BUFFER = 64;
+    private final SubmissionPublisher<AnalysisUpdate> publisher = new SubmissionPublisher<AnalysisUpdate>(
+            ForkJoinPool.commonPool(), BUFFER);
+    private final CompletableFuture<AnalysisUpdate> result = new CompletableFuture<AnalysisUpdate>();
+    private final Board board;
+    private final String engine;
+    private final long budgetNanos;
+    private final long intervalNanos;
+    private final AgentParameters params;
+    private volatile AnalysisUpdate latest;
+    private volatile int fallbackMove = FastBoard.NULL_MOVE;
+    private Thread thread;
+    private long start;
+
+    // CONSTRUCTORS
+
+    private AnytimeAnalysis(Board board, String engine, long budgetMillis, long intervalMillis,
+            AgentParameters params) {
+        try {
+            this.board = (Board) board.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        this.engine = engine;
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.intervalNanos = Math.max(1, intervalMillis) * 1000000L;
+        this.params = params;
+    }
+
+    /**
+     * An MCTS search of the position for a time budget.
+     *
+     * @param board          the position, copied
+     * @param budgetMillis   time to search unless cancelled
+     * @param intervalMillis least time between updates
+     **/
+    public static AnytimeAnalysis mcts(Board board, long budgetMillis, long intervalMillis) {
+        return new AnytimeAnalysis(board, "MCTS", budgetMillis, intervalMillis, AgentParameters.getDefault());
+    }
+
+    /**
+     * A MaxN search of the position to the agent's depth.
+     *
+     * @param board          the position, copied
+     * @param intervalMillis least time between updates
+     **/
+    public static AnytimeAnalysis maxN(Board board, long intervalMillis) {
+        return new AnytimeAnalysis(board, "MaxN", Long.MAX_VALUE / 2000000, intervalMillis,
+                AgentParameters.getDefault());
+    }
+
+    // METHODS
+
+    public void subscribe(Flow.Subscriber<? super AnalysisUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Starts the search on a daemon thread.
+     *
+     * @return this analysis
+     **/
+    public synchronized AnytimeAnalysis start() {
+        if (thread == null) {
+            int[] moves = new int[FastBoard.MAX_MOVES];
+            FastBoard root = new FastBoard(board);
+            if (!root.gameOver() && root.generateMoves(moves) > 0)
+                fallbackMove = moves[0];
+            start = System.nanoTime();
+            thread = new Thread(engine.equals("MCTS") ? this::runMcts : this::runMaxN, "analysis-" + engine);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops the search.
+     *
+     * @return the best move of the latest update, or a legal move if the
+     *         search has not reported yet, or null if there is none
+     **/
+    public Position[] cancel() {
+        Thread running = thread;
+        if (running != null)
+            running.interrupt();
+        AnalysisUpdate update = latest;
+        if (update != null && update.getBestMove() != null)
+            return update.getBestMove();
+        return fallbackMove < 0 ? null : FastBoard.toPositions(fallbackMove);
+    }
+
+    /**
+     * @return the latest update, or null before the first
+     **/
+    public AnalysisUpdate getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return the final update, completed when the search ends
+     **/
+    public CompletableFuture<AnalysisUpdate> getResult() {
+        return result;
+    }
+
+    private void publish(AnalysisUpdate update) {
+        latest = update;
+        publisher.offer(update, null);
+    }
+
+    private void finish(AnalysisUpdate update) {
+        publish(update);
+        publisher.close();
+        result.complete(update);
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    // SEARCHES
+
+    private void runMcts() {
+        MCTSAgent agent = new MCTSAgent(params);
+        FastBoard root = agent.searchBoard(board);
+        MCTSAgent.SearchStats stats = new MCTSAgent.SearchStats();
+        agent.attachTree(stats);
+        long deadline = start + budgetNanos;
+        long next = start + intervalNanos;
+        boolean searching = !root.gameOver();
+        while (searching) {
+            searching = agent.searchUntil(root, stats, Math.min(next, deadline));
+            long now = System.nanoTime();
+            searching &= now < deadline;
+            if (searching && now >= next) {
+                publish(mctsUpdate(agent, stats, false));
+                next = now + intervalNanos;
+            }
+        }
+        finish(mctsUpdate(agent, stats, true));
+    }
+
+    /**
+     * A snapshot of an MCTS search: the most played root move, the mean
+     * playout result of each colour, and the line of most visited nodes in
+     * the tree below the best move.
+     **/
+    private AnalysisUpdate mctsUpdate(MCTSAgent agent, MCTSAgent.SearchStats stats, boolean finished) {
+        int best = agent.bestMove(stats);
+        double[] scores = new double[3];
+        for (int c = 0; c < 3; c++)
+            scores[c] = stats.playouts == 0 ? 0 : stats.totals[c] / stats.playouts;
+        int[] pv = new int[FastBoard.MAX_MOVES];
+        int length = 0;
+        if (best >= 0) {
+            pv[length++] = best;
+            MCTSTree tree = stats.tree;
+            int node = tree == null ? MCTSTree.NONE : tree.child(MCTSTree.ROOT, best, false);
+            while (node != MCTSTree.NONE && length < pv.length) {
+                int next = MCTSTree.NONE;
+                for (int child = tree.getFirstChild(node); child != MCTSTree.NONE; child = tree
+                        .getNextSibling(child))
+                    if (next == MCTSTree.NONE || tree.getVisits(child) > tree.getVisits(next))
+                        next = child;
+                if (next != MCTSTree.NONE)
+                    pv[length++] = tree.getMove(next);
+                node = next;
+            }
+        }
+        return new AnalysisUpdate(engine, best, scores, length, stats.playouts, 0, pv, length, elapsedMillis(),
+                finished);
+    }
+
+    private void runMaxN() {
+        MaxNAgent agent = new MaxNAgent(params);
+        int me = board.getTurn().ordinal();
+        int depth = agent.getMoveLimit() + 1;
+        int[] bestUtility = new int[3];
+        int[] bestPv = new int[depth + 64];
+        int[] bestLength = { 0 };
+        long[] next = { start + intervalNanos };
+        agent.searchRootMoves(board, (move, utility, pv, pvLength) -> {
+            if (bestLength[0] == 0 || utility[me] > bestUtility[me]) {
+                System.arraycopy(utility, 0, bestUtility, 0, 3);
+                bestPv[0] = move;
+                int length = Math.min(pvLength, bestPv.length - 1);
+                System.arraycopy(pv, 0, bestPv, 1, length);
+                bestLength[0] = length + 1;
+            }
+            long now = System.nanoTime();
+            if (now >= next[0]) {
+                publish(maxNUpdate(agent, depth, bestUtility, bestPv, bestLength[0], false));
+                next[0] = now + intervalNanos;
+            }
+        });
+        finish(maxNUpdate(agent, depth, bestUtility, bestPv, bestLength[0], true));
+    }
+
+    private AnalysisUpdate maxNUpdate(MaxNAgent agent, int depth, int[] utility, int[] pv, int length,
+            boolean finished) {
+        double[] scores = { utility[0], utility[1], utility[2] };
+        return new AnalysisUpdate(engine, length == 0 ? FastBoard.NULL_MOVE : pv[0], scores, depth, 0,
+                agent.getNodes() + agent.getQuiescenceNodes(), pv, length, elapsedMillis(), finished);
+    }
+}
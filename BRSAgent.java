@@ -0,0 +1,371 @@
+package threeChess.agents;
+
+import java.util.*;
+import threeChess.*;
+
+/**
+ * An AI interface that implements Best-Reply Search (Schadd and Winands) for
+ * threeChess. Where MaxN expands every reply of both opponents in turn, BRS
+ * treats the two opponents as one minimising player: at an opponent level
+ * the moves of both opponents are generated and only the single strongest
+ * reply across both is played, the other opponent passing. The tree becomes
+ * alternating max and min levels, so alpha-beta prunes it and iterative
+ * deepening reaches well past MaxN's fixed depth in the same time.
+ *
+ * Utilities are those of MaxNAgent, computed incrementally on a FastBoard:
+ * our material balance (grudge material in grudge mode), the piece-square
+ * terms, or the trained linear evaluation if weights are loaded.
+ *
+ **/
+public class BRSAgent extends Agent {
+
+    // FIELDS
+    private String name = "BRS";
+    private double rate = 0.05;
+    private int maxDepth = 32;
+    private boolean grudgeMode = false;
+    private LinearEvaluator evaluator;
+    private static final int WIN_SCORE = 1000000;
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+    private static final int MAX_DEPTH = 64;
+
+    // search state
+    private int myOrdinal;
+    private long deadline;
+    private boolean aborted;
+    private long nodes;
+    private int lastDepth;
+    private final int[][] moves = new int[MAX_DEPTH + 1][2 * FastBoard.MAX_MOVES];
+    private final int[][] scores = new int[MAX_DEPTH + 1][2 * FastBoard.MAX_MOVES];
+    private final int[] secondMoves = new int[FastBoard.MAX_MOVES];
+    private final int[] utility = new int[3];
+    // quiet moves that caused cutoffs: two killers per level, and a history
+    // score per packed move that grows with the depth of each cutoff
+    private final int[][] killers = new int[MAX_DEPTH + 1][2];
+    private final int[] history = new int[1 << 14];
+    private static final int KILLER_SCORE = 1 << 16;
+
+    /**
+     * A no argument constructor, required for tournament management.
+     **/
+    public BRSAgent() {
+        this(AgentParameters.getDefault());
+    }
+
+    /**
+     * Constructor for loading tuned variables
+     *
+     * @param params parameter set, missing keys keep their built in values
+     **/
+    public BRSAgent(AgentParameters params) {
+        rate = params.getDouble("BRSAgent.rate", rate);
+        maxDepth = Math.min(MAX_DEPTH, params.getInt("BRSAgent.maxDepth", maxDepth));
+        if (params.getInt("BRSAgent.linearEvaluation", 1) != 0)
+            evaluator = LinearEvaluator.getDefault();
+    }
+
+    /**
+     * Constructor for altering variables used in testing
+     *
+     * @param rate       fraction of the remaining time to use per move
+     * @param grudgeMode true turns on one player focus
+     **/
+    public BRSAgent(Double rate, boolean grudgeMode) {
+        this(AgentParameters.getDefault());
+        if (grudgeMode == true) {
+            this.grudgeMode = true;
+            name += "G";
+        }
+        if (rate != null) {
+            this.rate = rate;
+            name = name + (Double.toString(rate)).replace(".", "");
+        }
+    }
+
+    /**
+     * Play a move in the game using Best-Reply Search with iterative deepening.
+     *
+     * @param board The representation of the game state.
+     * @return Position array representing suggested move
+     **/
+    public Position[] playMove(Board board) {
+        long timeLeft = board.getTimeLeft(board.getTurn());
+        FastBoard root = searchBoard(board);
+        int[] rootMoves = new int[FastBoard.MAX_MOVES];
+        int count = root.generateMoves(rootMoves);
+        if (count == 0)
+            return playRandomMove(board);
+
+        int best = search(root, rootMoves, count, System.currentTimeMillis() + (long) (timeLeft * rate));
+        Position[] chosen = FastBoard.toPositions(rootMoves[best]);
+        // moves come from FastBoard tables, check with the game before committing
+        if (!board.isLegalMove(chosen[0], chosen[1]))
+            chosen = playRandomMove(board);
+        return chosen;
+    }
+
+    /**
+     * Copies a board for searching, installing the trained evaluator's square
+     * table if it will be used.
+     **/
+    private FastBoard searchBoard(Board board) {
+        FastBoard root = new FastBoard(board);
+        if (evaluator != null && !grudgeMode)
+            root.setSquareTable(evaluator.getSquareTable());
+        return root;
+    }
+
+    /**
+     * Deepens the search one level at a time until the deadline. The best move
+     * of each completed depth is searched first at the next, and a depth cut
+     * short still counts if it already found a better move than the previous
+     * best, which it searched first.
+     *
+     * @param root      the position, with us to move
+     * @param rootMoves the legal moves, reordered in place
+     * @param count     number of legal moves
+     * @param deadline  time in milliseconds to stop
+     * @return index in rootMoves of the move to play, always 0 as the best
+     *         move is kept first
+     **/
+    int search(FastBoard root, int[] rootMoves, int count, long deadline) {
+        this.deadline = deadline;
+        myOrdinal = root.getTurn();
+        aborted = false;
+        nodes = 0;
+        lastDepth = 0;
+        for (int[] killer : killers)
+            Arrays.fill(killer, FastBoard.NULL_MOVE);
+        Arrays.fill(history, 0);
+        root.orderMoves(rootMoves, count, new int[count]);
+
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int alpha = -INFINITY;
+            int iterationBest = -1;
+            for (int i = 0; i < count; i++) {
+                root.make(rootMoves[i]);
+                int value = brs(root, depth - 1, 1, alpha, INFINITY, false);
+                root.unmake();
+                if (aborted)
+                    break;
+                if (value > alpha) {
+                    alpha = value;
+                    iterationBest = i;
+                }
+            }
+            if (iterationBest > 0) {
+                // best move first for the next iteration
+                int move = rootMoves[iterationBest];
+                System.arraycopy(rootMoves, 0, rootMoves, 1, iterationBest);
+                rootMoves[0] = move;
+            }
+            if (aborted)
+                break;
+            lastDepth = depth;
+            // a forced win or loss will not change with depth
+            if (Math.abs(alpha) >= WIN_SCORE - MAX_DEPTH)
+                break;
+        }
+        return 0;
+    }
+
+    /**
+     * The recursive search. At our levels every move is tried; at opponent
+     * levels the moves of both opponents are merged and ordered, and each is
+     * played with the other opponent passing, so the position returns to us.
+     *
+     * @param board the position, restored before returning
+     * @param depth levels left to search
+     * @param ply   levels searched from the root
+     * @param alpha lower bound on our value
+     * @param beta  upper bound on our value
+     * @param max   true at our levels
+     * @return our value of the position, or 0 if the search was aborted
+     **/
+    private int brs(FastBoard board, int depth, int ply, int alpha, int beta, boolean max) {
+        nodes++;
+        if ((nodes & 1023) == 0 && System.currentTimeMillis() > deadline)
+            aborted = true;
+        if (aborted)
+            return 0;
+        if (board.gameOver() || depth == 0 || ply >= MAX_DEPTH)
+            return evaluate(board, ply);
+
+        int[] list = moves[ply];
+        int[] score = scores[ply];
+        int count;
+        if (max) {
+            count = board.generateMoves(list);
+            if (count == 0)
+                return evaluate(board, ply);
+            order(board, list, count, ply);
+            int best = -INFINITY;
+            for (int i = 0; i < count; i++) {
+                int move = FastBoard.pickBest(list, score, i, count);
+                board.make(move);
+                int value = brs(board, depth - 1, ply + 1, alpha, beta, false);
+                board.unmake();
+                if (aborted)
+                    return 0;
+                if (value > best)
+                    best = value;
+                if (value > alpha)
+                    alpha = value;
+                if (alpha >= beta) {
+                    cutoff(board, move, depth, ply);
+                    break;
+                }
+            }
+            return best;
+        }
+
+        // both opponents' moves, the second generated after a pass
+        int first = board.getTurn();
+        count = board.generateMoves(list);
+        board.makeNull();
+        int second = board.generateMoves(secondMoves);
+        board.unmake();
+        System.arraycopy(secondMoves, 0, list, count, second);
+        count += second;
+        if (count == 0)
+            return evaluate(board, ply);
+        order(board, list, count, ply);
+        int best = INFINITY;
+        for (int i = 0; i < count; i++) {
+            int move = FastBoard.pickBest(list, score, i, count);
+            if (FastBoard.colourOf(board.getPiece(FastBoard.from(move))) == first) {
+                board.make(move);
+                board.makeNull();
+            } else {
+                board.makeNull();
+                board.make(move);
+            }
+            int value = brs(board, depth - 1, ply + 1, alpha, beta, true);
+            board.unmake();
+            board.unmake();
+            if (aborted)
+                return 0;
+            if (value < best)
+                best = value;
+            if (value < beta)
+                beta = value;
+            if (alpha >= beta) {
+                cutoff(board, move, depth, ply);
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores the moves of a level for picking: the board's capture ordering,
+     * then the killers of the level, then quiet moves by history.
+     **/
+    private void order(FastBoard board, int[] list, int count, int ply) {
+        int[] score = scores[ply];
+        board.scoreMoves(list, count, score);
+        for (int i = 0; i < count; i++) {
+            int move = list[i];
+            if (board.getPiece(FastBoard.to(move)) != FastBoard.EMPTY)
+                continue;
+            if (move == killers[ply][0] || move == killers[ply][1])
+                score[i] += KILLER_SCORE;
+            else
+                score[i] += Math.min(history[move], KILLER_SCORE - 1);
+        }
+    }
+
+    /**
+     * Remembers a quiet move that caused a cutoff.
+     **/
+    private void cutoff(FastBoard board, int move, int depth, int ply) {
+        if (board.getPiece(FastBoard.to(move)) != FastBoard.EMPTY)
+            return;
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        history[move] += depth * depth;
+    }
+
+    /**
+     * Our utility in the position, with a decisive bonus or penalty if our
+     * king or another's has been taken, preferring quicker wins.
+     **/
+    private int evaluate(FastBoard board, int ply) {
+        if (evaluator != null && !grudgeMode)
+            evaluator.evaluate(board, utility);
+        else
+            board.evaluate(grudgeMode ? myOrdinal : -1, utility);
+        int value = utility[myOrdinal];
+        if (board.gameOver() && board.getWinner() >= 0) {
+            if (board.getWinner() == myOrdinal)
+                value += WIN_SCORE - ply;
+            else if (board.getLoser() == myOrdinal)
+                value -= WIN_SCORE - ply;
+        }
+        return value;
+    }
+
+    /**
+     * @return the deepest search completed by the last move
+     **/
+    public int getLastDepth() {
+        return lastDepth;
+    }
+
+    /**
+     * @return the nodes visited by the last move
+     **/
+    public long getNodes() {
+        return nodes;
+    }
+
+    // METHODS FOR SIMPLE ALTERNATE MOVE STRATEGIES
+
+    /**
+     * Play a random move in the game.
+     *
+     * @param board The representation of the game state.
+     * @return a move to be played
+     **/
+    public Position[] playRandomMove(Board board) {
+        FastRandom random = FastRandom.current();
+        Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
+        Position start = pieces[0];
+        Position end = pieces[0]; // dummy illegal move
+        while (!board.isLegalMove(start, end)) {
+            start = pieces[random.nextInt(pieces.length)];
+            Piece mover = board.getPiece(start);
+            Direction[][] steps = mover.getType().getSteps();
+            Direction[] step = steps[random.nextInt(steps.length)];
+            int reps = 1 + random.nextInt(mover.getType().getStepReps());
+            end = start;
+            try {
+                for (int i = 0; i < reps; i++)
+                    end = board.step(mover, step, end, start.getColour() != end.getColour());
+            } catch (ImpossiblePositionException e) {
+            }
+        }
+        return new Position[] { start, end };
+    }
+
+    // METHODS REQUIRED FOR TOURNAMENT
+
+    /**
+     * @return the Agent's name, for annotating game description.
+     **/
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Displays the final board position to the agent, if required for learning
+     * purposes. Other a default implementation may be given.
+     *
+     * @param finalBoard the end position of the board
+     **/
+    public void finalBoard(Board finalBoard) {
+    }
+
+}
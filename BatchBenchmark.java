@@ -0,0 +1,173 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Compares the cost per leaf of evaluating the children of a node one at a
+ * time, by making each move, evaluating and unmaking as MaxN did, against
+ * BatchEvaluator with its scalar and SIMD kernels. Positions are reached by
+ * random play, so the branching factors are those of real games; results are
+ * given by range of branching factor, after checking that all three modes
+ * agree on every child, in plain and grudge modes. The SIMD kernel is only
+ * measured if it was compiled (see README.md); otherwise it falls back to the
+ * scalar loop.
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector threeChess.agents.BatchBenchmark [positions] [rounds]
+ * </pre>
+ *
+ **/
+public class BatchBenchmark {
+
+    // FIELDS
+    private static final int WIN_SCORE = 1000000;
+    private static final int[] BUCKETS = { 0, 20, 40, FastBoard.MAX_MOVES + 1 };
+    private static int sink;
+
+    /**
+     * @param args number of positions and timing rounds over them
+     **/
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        FastRandom random = FastRandom.current();
+        FastBoard start = new FastBoard(new Board(0));
+        FastBoard[] boards = new FastBoard[positions];
+        int[][] moves = new int[positions][FastBoard.MAX_MOVES];
+        int[] counts = new int[positions];
+        int[] scratch = new int[FastBoard.MAX_MOVES];
+        for (int p = 0; p < positions;) {
+            FastBoard board = new FastBoard();
+            board.copyFrom(start);
+            int plies = random.nextInt(60);
+            for (int i = 0; i < plies && !board.gameOver(); i++) {
+                int move = board.randomMove(random, scratch);
+                if (move < 0)
+                    break;
+                board.make(move);
+            }
+            board.clearHistory();
+            if (board.gameOver())
+                continue;
+            counts[p] = board.generateMoves(moves[p]);
+            if (counts[p] == 0)
+                continue;
+            boards[p++] = board;
+        }
+
+        BatchEvaluator scalar = new BatchEvaluator(WIN_SCORE, false);
+        BatchEvaluator vector = new BatchEvaluator(WIN_SCORE, true);
+        System.out.println("SIMD kernel "
+                + (vector.isVectorised() ? "available" : "not available, both batch modes scalar"));
+        System.out.println("mismatched children: " + check(boards, moves, counts, scalar, vector));
+
+        String[] names = { "make/unmake", "batch scalar", "batch SIMD" };
+        // compile every mode before timing, the SIMD kernel is slow until the
+        // JIT has intrinsified it
+        for (int mode = 0; mode < names.length; mode++)
+            for (int b = 0; b + 1 < BUCKETS.length; b++)
+                time(mode, b, boards, moves, counts, scalar, vector, rounds);
+        for (int b = 0; b + 1 < BUCKETS.length; b++) {
+            long leaves = 0;
+            int nodes = 0;
+            for (int p = 0; p < positions; p++)
+                if (counts[p] >= BUCKETS[b] && counts[p] < BUCKETS[b + 1]) {
+                    leaves += counts[p];
+                    nodes++;
+                }
+            if (nodes == 0)
+                continue;
+            StringBuilder line = new StringBuilder(String.format("branching %2d-%-3d (mean %4.1f, %4d nodes):",
+                    BUCKETS[b], BUCKETS[b + 1] - 1, (double) leaves / nodes, nodes));
+            double baseline = 0;
+            for (int mode = 0; mode < names.length; mode++) {
+                long nanos = time(mode, b, boards, moves, counts, scalar, vector, rounds);
+                double perLeaf = (double) nanos / (leaves * rounds);
+                if (mode == 0)
+                    baseline = perLeaf;
+                line.append(String.format(" %s %.1fns", names[mode], perLeaf));
+                if (mode > 0)
+                    line.append(String.format(" (%.1fx)", baseline / perLeaf));
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @return the number of children on which the three modes disagree
+     **/
+    private static int check(FastBoard[] boards, int[][] moves, int[] counts, BatchEvaluator scalar,
+            BatchEvaluator vector) {
+        int[] expected = new int[3];
+        int[] a = new int[3];
+        int[] b = new int[3];
+        int bad = 0;
+        for (int p = 0; p < boards.length; p++) {
+            for (int grudge = -1; grudge < 3; grudge++) {
+                scalar.evaluate(boards[p], moves[p], counts[p], grudge);
+                vector.evaluate(boards[p], moves[p], counts[p], grudge);
+                for (int i = 0; i < counts[p]; i++) {
+                    leaf(boards[p], moves[p][i], grudge, expected);
+                    scalar.get(i, a);
+                    vector.get(i, b);
+                    for (int c = 0; c < 3; c++)
+                        if (a[c] != expected[c] || b[c] != expected[c]) {
+                            bad++;
+                            break;
+                        }
+                }
+            }
+        }
+        return bad;
+    }
+
+    /**
+     * Evaluates one child the way MaxNAgent does without batching.
+     **/
+    private static void leaf(FastBoard board, int move, int grudge, int[] utility) {
+        board.make(move);
+        board.evaluate(grudge, utility);
+        if (board.gameOver() && board.getWinner() >= 0) {
+            utility[board.getWinner()] += WIN_SCORE;
+            utility[board.getLoser()] -= WIN_SCORE;
+        }
+        board.unmake();
+    }
+
+    /**
+     * Finds the best child for the mover of every position in a bucket.
+     *
+     * @return elapsed nanoseconds
+     **/
+    private static long time(int mode, int bucket, FastBoard[] boards, int[][] moves, int[] counts,
+            BatchEvaluator scalar, BatchEvaluator vector, int rounds) {
+        int[] utility = new int[3];
+        int total = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int p = 0; p < boards.length; p++) {
+                int count = counts[p];
+                if (count < BUCKETS[bucket] || count >= BUCKETS[bucket + 1])
+                    continue;
+                FastBoard board = boards[p];
+                int player = board.getTurn();
+                if (mode == 0) {
+                    int best = Integer.MIN_VALUE;
+                    for (int i = 0; i < count; i++) {
+                        leaf(board, moves[p][i], -1, utility);
+                        best = Math.max(best, utility[player]);
+                    }
+                    total += best;
+                } else {
+                    BatchEvaluator batch = mode == 1 ? scalar : vector;
+                    batch.evaluate(board, moves[p], count, -1);
+                    total += batch.best(player, count);
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        sink += total;
+        return nanos;
+    }
+}
@@ -0,0 +1,166 @@
+package threeChess.agents;
+
+/**
+ * Evaluates every child of a node in one call, for the last level of a MaxN
+ * search whose leaves are scored by material and square tables alone, with
+ * quiescence and trained weights off (see MaxNAgent.maxN). Each child differs
+ * from its parent by one move, so its material and piece-square utility is
+ * the parent's plus a per-move delta: the mover gains the victim's value and
+ * the square change of its piece, and the victim's colour loses the victim.
+ * The deltas are gathered from the board once per child into parallel arrays
+ * (struct of arrays), and a kernel then adds them to the parent's utilities
+ * for all children at once, without making any move.
+ *
+ * The kernel uses the jdk.incubator.vector SIMD lanes if the optional
+ * VectorBatchKernel was compiled and the module is present (loaded by
+ * reflection, see README.md), and a scalar loop otherwise or if the
+ * threeChess.vector system property is false. The result is the same as
+ * making each move and calling FastBoard.evaluate, with winScore added for
+ * the winner and taken from the loser when a king falls.
+ *
+ **/
+public class BatchEvaluator {
+
+    // FIELDS
+    public static final String VECTOR_PROPERTY = "threeChess.vector";
+    public static final int STRIDE = FastBoard.MAX_MOVES;
+    private static final int COLOURS = 3;
+    private static final Kernel SCALAR = new ScalarKernel();
+    private static final Kernel DEFAULT = loadKernel();
+
+    private final Kernel kernel;
+    private final int winScore;
+    private final int[] base = new int[COLOURS];
+    // per child: colour of the piece taken or -1, what the mover gains and
+    // what the victim's colour loses
+    private final int[] victim = new int[STRIDE];
+    private final int[] moverDelta = new int[STRIDE];
+    private final int[] victimLoss = new int[STRIDE];
+    // utilities of the children, colour major: colour c of child i is at
+    // c * STRIDE + i
+    private final int[] utility = new int[COLOURS * STRIDE];
+
+    /**
+     * @param winScore utility added to the winner and taken from the loser
+     *                 when a move takes a king
+     * @param vector   true to use the SIMD kernel if it is available
+     **/
+    public BatchEvaluator(int winScore, boolean vector) {
+        this.winScore = winScore;
+        this.kernel = vector ? DEFAULT : SCALAR;
+    }
+
+    private static Kernel loadKernel() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true")))
+            return SCALAR;
+        try {
+            return (Kernel) Class.forName("threeChess.agents.VectorBatchKernel").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+
+    // METHODS
+
+    /**
+     * Evaluates the positions after each move.
+     *
+     * @param board  the parent position, not changed
+     * @param moves  legal moves of the colour to move
+     * @param count  number of moves
+     * @param grudge the grudging colour, or -1 for plain material
+     * @return the utilities, colour major with stride STRIDE, valid until the
+     *         next call
+     **/
+    public int[] evaluate(FastBoard board, int[] moves, int count, int grudge) {
+        board.evaluate(grudge, base);
+        int mover = board.getTurn();
+        int grudgeVictim = (grudge + 1) % COLOURS;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int from = FastBoard.from(move);
+            int to = FastBoard.to(move);
+            int moved = board.getPiece(from);
+            int captured = board.getPiece(to);
+            int delta = board.squareValue(board.placedPiece(move), to) - board.squareValue(moved, from);
+            if (captured == FastBoard.EMPTY) {
+                victim[i] = -1;
+                moverDelta[i] = delta;
+                victimLoss[i] = 0;
+                continue;
+            }
+            int colour = FastBoard.colourOf(captured);
+            int value = FastBoard.valueOf(captured) * PieceSquareTable.MATERIAL_SCALE;
+            int loss = value + board.squareValue(captured, to);
+            // a grudging colour gains nothing from pieces of the other opponent
+            if (mover != grudge || colour == grudgeVictim)
+                delta += value;
+            if (FastBoard.typeOf(captured) == threeChess.PieceType.KING.ordinal()) {
+                delta += winScore;
+                loss += winScore;
+            }
+            victim[i] = colour;
+            moverDelta[i] = delta;
+            victimLoss[i] = loss;
+        }
+        kernel.run(count, mover, base, victim, moverDelta, victimLoss, utility);
+        return utility;
+    }
+
+    /**
+     * @return the index of the first child with the highest utility for a
+     *         colour, in the result of the last evaluate
+     **/
+    public int best(int colour, int count) {
+        int offset = colour * STRIDE;
+        int best = 0;
+        for (int i = 1; i < count; i++)
+            if (utility[offset + i] > utility[offset + best])
+                best = i;
+        return best;
+    }
+
+    /**
+     * Copies the utilities of one child of the last evaluate.
+     **/
+    public void get(int child, int[] out) {
+        for (int c = 0; c < COLOURS; c++)
+            out[c] = utility[c * STRIDE + child];
+    }
+
+    /**
+     * @return true if evaluate runs on SIMD lanes
+     **/
+    public boolean isVectorised() {
+        return kernel != SCALAR;
+    }
+
+    // SUPPLEMENTARY STRUCTURE
+
+    /**
+     * Adds the per-child deltas to the parent's utilities: for each colour c
+     * and child i, utility = base[c], plus moverDelta[i] if c is the mover,
+     * less victimLoss[i] if c lost a piece.
+     **/
+    interface Kernel {
+        void run(int count, int mover, int[] base, int[] victim, int[] moverDelta, int[] victimLoss, int[] utility);
+    }
+
+    private static class ScalarKernel implements Kernel {
+        public void run(int count, int mover, int[] base, int[] victim, int[] moverDelta, int[] victimLoss,
+                int[] utility) {
+            for (int c = 0; c < COLOURS; c++) {
+                int offset = c * STRIDE;
+                int value = base[c];
+                if (c == mover) {
+                    for (int i = 0; i < count; i++)
+                        utility[offset + i] = value + moverDelta[i];
+                } else {
+                    for (int i = 0; i < count; i++)
+                        utility[offset + i] = victim[i] == c ? value - victimLoss[i] : value;
+                }
+            }
+        }
+    }
+}
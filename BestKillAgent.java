@@ -1,6 +1,5 @@
 package threeChess.agents;
 import threeChess.*;
-import java.util.Random;
 
 /**
  * An interface for AI bots to implement.
@@ -16,7 +15,6 @@ import java.util.Random;
 public class BestKillAgent extends Agent{
   
   private static final String name = "BestK";
-  private static final Random random = new Random();
 
 
   /**
@@ -42,68 +40,33 @@ public class BestKillAgent extends Agent{
 
 
 /*
- * Checks all possible moves of the player and selects the one with
- * kills the highest ranking opponent
+ * Selects the capture which takes the highest value opponent piece,
+ * read from the board's attack tables, or a random move if there is none
  * @return an array of positions i.e. start and finish
  */
   public Position[] playMove(Board board){
-    Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-    Position start = pieces[0];
-    Position end = pieces[0]; //dummy illegal move
-    Position bestStart = pieces[0];
-    Position bestEnd = pieces[0];
-    int bestUtility = 0;
-
-    boolean kill = false;
-    int checkCount = 0;
-    int utility = 0;
-    
-    // NEXT: update utility calculation so it factors in
-    // cost of moving into a position that isn't safe
-    // i.e. if in danger; utility = win - loss
-
-    // cycle through my pieces
-    for (int i=0; i<pieces.length; i++) {
+    int move = chooseMove(new FastBoard(board), FastRandom.current(), new int[FastBoard.MAX_MOVES]);
+    if (move < 0)
+        return randomPlayMove(board);
+    Position[] chosen = FastBoard.toPositions(move);
+    // moves come from FastBoard tables, check with the game before committing
+    if (!board.isLegalMove(chosen[0], chosen[1]))
+        return randomPlayMove(board);
+    return chosen;
+  }
 
-        start = pieces[i]; // start represents current piece location
-        Piece mover = board.getPiece(start);
-        Direction[][] steps = mover.getType().getSteps();
-        int maxReps = board.getPiece(start).getType().getStepReps();
-        
-        // for each piece play out each of their moves
-        for (int j = 0; j<steps.length; j++) {
-            utility = 0;
-            mover = board.getPiece(start);
-            Direction[] step = steps[j];         
-            try {
-                  // iterate through allowed number of reps of move
-                  for (int m=1; m <= maxReps; m++){
-                      end = board.step(mover, step, end);
-                      // if a move that takes a piece is found
-                      if (board.getPiece(end) != null && board.isLegalMove(start, end)) {
-                        //check utility of piece taken
-                        if (board.getPiece(end).getValue() > bestUtility) {
-                            //store this best utility found
-                            bestUtility = board.getPiece(end).getValue();
-                            bestStart = start;
-                            bestEnd = end;
-                          }
-                      // break after the playable move is encountered
-                      break;
-                      }
-                    }
-                  }
-            catch(ImpossiblePositionException e){}
-          }
-      }
-    
-    // return move with the highest utility
-    // or returns random move if no best found 
-    if (bestUtility > 0 ) 
-        return new Position[]{bestStart, bestEnd};
-    else 
-        return randomPlayMove(board);                           
-  
+  /**
+   * The BestKill policy on a FastBoard, cheap enough for playouts:
+   * the capture of the most valuable opponent piece, else a random move.
+   * @param board the position, with the colour to move choosing
+   * @param random the generator for random moves
+   * @param moves scratch array of at least FastBoard.MAX_MOVES entries
+   * @return a packed move, or -1 if there is no legal move
+   */
+  public static int chooseMove(FastBoard board, FastRandom random, int[] moves){
+    if (board.generateCapturesByValue(moves, -1) > 0)
+        return moves[0];
+    return board.randomMove(random, moves);
   }
 
   /**
@@ -124,6 +87,7 @@ public class BestKillAgent extends Agent{
    * backup random move
    */
   public Position[] randomPlayMove(Board board){
+    FastRandom random = FastRandom.current();
     Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
     Position start = pieces[0];
     Position end = pieces[0]; //dummy illegal move
@@ -0,0 +1,73 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Compares the depth BRSAgent reaches with the time MaxNAgent takes for its
+ * fixed depth search. For positions reached by random play, MaxN chooses a
+ * move and is timed; BRS is then given the same time and reports the depth
+ * it completed. Depths are given in moves played, where MaxN searches its
+ * root move and moveLimit replies and each BRS opponent level stands for one
+ * reply, and in our own moves looked ahead: MaxN's search sees one of our
+ * moves, a BRS search of depth d sees (d + 1) / 2.
+ *
+ * <pre>
+ * java threeChess.agents.DepthBenchmark [positions]
+ * </pre>
+ *
+ **/
+public class DepthBenchmark {
+
+    /**
+     * @param args number of positions
+     **/
+    public static void main(String[] args) throws Exception {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        AgentParameters params = new AgentParameters();
+        MaxNAgent maxN = new MaxNAgent(params);
+        BRSAgent brs = new BRSAgent(params);
+        int maxNDepth = 1 + params.getInt("MaxNAgent.moveLimit", 2);
+
+        FastRandom random = FastRandom.current();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        long totalTime = 0;
+        int totalDepth = 0;
+        int measured = 0;
+        // the first positions warm up the JIT and are not counted
+        int warmup = 3;
+        for (int p = -warmup; p < positions; p++) {
+            // a middlegame position by random play
+            Board board = new Board(600000);
+            int plies = 10 + random.nextInt(30);
+            for (int i = 0; i < plies && !board.gameOver(); i++) {
+                int count = new FastBoard(board).generateMoves(moves);
+                if (count == 0)
+                    break;
+                Position[] move = FastBoard.toPositions(moves[random.nextInt(count)]);
+                board.move(move[0], move[1]);
+            }
+            if (board.gameOver())
+                continue;
+
+            long start = System.nanoTime();
+            maxN.playMove(board);
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+            FastBoard root = new FastBoard(board);
+            int count = root.generateMoves(moves);
+            brs.search(root, moves, count, System.currentTimeMillis() + millis);
+            int depth = brs.getLastDepth();
+            if (p < 0)
+                continue;
+            System.out.println("position " + p + ": MaxN depth " + maxNDepth + " in " + millis + "ms, BRS depth "
+                    + depth + " (" + brs.getNodes() + " nodes)");
+            totalTime += millis;
+            totalDepth += depth;
+            measured++;
+        }
+        double meanDepth = (double) totalDepth / Math.max(1, measured);
+        System.out.printf("MaxN depth %d, mean %.1fms; BRS mean depth %.2f in the same time%n", maxNDepth,
+                (double) totalTime / Math.max(1, measured), meanDepth);
+        System.out.printf("own moves looked ahead: MaxN 1, BRS %.2f%n", (meanDepth + 1) / 2);
+    }
+}
@@ -0,0 +1,208 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import threeChess.*;
+
+/**
+ * Fits LinearEvaluator weights to the outcomes of recorded games by
+ * multinomial logistic regression: for a position with scores s_c = w . f_c,
+ * the probability that colour c wins is exp(s_c) / sum exp(s_j), and the
+ * weights are fitted by stochastic gradient descent on the log loss of the
+ * actual winner.
+ *
+ * Games are streamed from GameRecorder files and replayed on one FastBoard,
+ * so memory does not grow with the number of positions. Each pass over the
+ * files is an epoch; every tenth game is held out to report validation loss.
+ * Games without a winner are skipped, as are the opening plies, and the
+ * remaining positions are subsampled to reduce correlation between
+ * neighbouring positions of a game.
+ *
+ * <pre>
+ * java threeChess.agents.EvaluationTrainer weights.properties 4 games.3cgr [more.3cgr ...]
+ * </pre>
+ *
+ **/
+public class EvaluationTrainer {
+
+    // FIELDS
+    private double learningRate = 0.01;
+    private double regularisation = 1e-6;
+    private double sampleRate = 0.25;
+    private int skipPlies = 8;
+    private static final int HOLDOUT = 10;
+
+    private final double[] weights = new double[LinearEvaluator.FEATURES];
+    private final FastBoard initial = new FastBoard(new Board(0));
+    private final FastBoard board = new FastBoard();
+    private final int[] pieces = new int[FastBoard.SQUARES];
+    private final int[][] index = new int[FastBoard.COLOURS.length][LinearEvaluator.MAX_ACTIVE];
+    private final double[][] value = new double[FastBoard.COLOURS.length][LinearEvaluator.MAX_ACTIVE];
+    private final int[] active = new int[FastBoard.COLOURS.length];
+    private final double[] probability = new double[FastBoard.COLOURS.length];
+    private int[] moves = new int[1024];
+
+    // running totals for the current epoch
+    private long trainPositions;
+    private double trainLoss;
+    private long testPositions;
+    private double testLoss;
+
+    /**
+     * Starts from material weights proportional to the piece values, so early
+     * epochs refine a sensible evaluation rather than discover material.
+     **/
+    public EvaluationTrainer() {
+        for (PieceType type : FastBoard.TYPES)
+            if (type != PieceType.KING)
+                weights[LinearEvaluator.MATERIAL + type.ordinal()] = 0.1
+                        * FastBoard.valueOf(FastBoard.piece(0, type.ordinal()));
+    }
+
+    /**
+     * Sets the optimiser parameters.
+     *
+     * @param learningRate   initial step size, decayed by epoch
+     * @param regularisation L2 weight decay per step
+     * @param sampleRate     fraction of positions used
+     * @param skipPlies      opening plies of each game ignored
+     **/
+    public void setParameters(double learningRate, double regularisation, double sampleRate, int skipPlies) {
+        this.learningRate = learningRate;
+        this.regularisation = regularisation;
+        this.sampleRate = sampleRate;
+        this.skipPlies = skipPlies;
+    }
+
+    /**
+     * Runs one pass over the record files.
+     *
+     * @param files  record files to read
+     * @param epoch  epoch number, from 0, for the step size decay
+     * @param random sampler for positions
+     * @throws IOException if a file cannot be read
+     **/
+    public void epoch(List<Path> files, int epoch, FastRandom random) throws IOException {
+        trainPositions = 0;
+        trainLoss = 0;
+        testPositions = 0;
+        testLoss = 0;
+        double rate = learningRate / (1 + epoch);
+        long game = 0;
+        for (Path file : files) {
+            try (GameRecordReader reader = new GameRecordReader(file)) {
+                while (reader.next()) {
+                    if (reader.getWinner() == GameRecorder.NO_COLOUR)
+                        continue;
+                    replay(reader, random, rate, game++ % HOLDOUT == 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays one game, taking a gradient step at each sampled position, or
+     * only measuring the loss for held out games.
+     **/
+    private void replay(GameRecordReader reader, FastRandom random, double rate, boolean holdout) {
+        if (reader.getMoveCount() > moves.length)
+            moves = new int[Math.max(reader.getMoveCount(), 2 * moves.length)];
+        int count = reader.readMoves(moves);
+        if (reader.hasStartPosition())
+            reader.readStartPosition(board, pieces);
+        else
+            board.copyFrom(initial);
+        int winner = reader.getWinner();
+        for (int ply = 0; ply < count && !board.gameOver(); ply++) {
+            if (ply >= skipPlies && random.nextDouble() < sampleRate) {
+                double loss = step(winner, holdout ? 0 : rate);
+                if (holdout) {
+                    testPositions++;
+                    testLoss += loss;
+                } else {
+                    trainPositions++;
+                    trainLoss += loss;
+                }
+            }
+            board.make(moves[ply]);
+            board.clearHistory();
+        }
+    }
+
+    /**
+     * Scores the current position and, if rate is positive, moves the weights
+     * along the gradient of the log loss: for each colour, (y_c - p_c) f_c.
+     *
+     * @return the log loss of the position before the step
+     **/
+    private double step(int winner, double rate) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+            active[c] = LinearEvaluator.features(board, c, index[c], value[c]);
+            double score = 0;
+            for (int i = 0; i < active[c]; i++)
+                score += weights[index[c][i]] * value[c][i];
+            probability[c] = score;
+            max = Math.max(max, score);
+        }
+        double total = 0;
+        for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+            probability[c] = Math.exp(probability[c] - max);
+            total += probability[c];
+        }
+        for (int c = 0; c < FastBoard.COLOURS.length; c++)
+            probability[c] /= total;
+        double loss = -Math.log(Math.max(probability[winner], 1e-12));
+        if (rate > 0) {
+            for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+                double error = (c == winner ? 1 : 0) - probability[c];
+                for (int i = 0; i < active[c]; i++) {
+                    int feature = index[c][i];
+                    weights[feature] += rate * (error * value[c][i] - regularisation * weights[feature]);
+                }
+            }
+        }
+        return loss;
+    }
+
+    /**
+     * @return a copy of the current weights
+     **/
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public String report() {
+        return String.format("train %d positions loss %.4f, holdout %d positions loss %.4f", trainPositions,
+                trainPositions == 0 ? 0 : trainLoss / trainPositions, testPositions,
+                testPositions == 0 ? 0 : testLoss / testPositions);
+    }
+
+    /**
+     * Trains weights from record files.
+     *
+     * @param args output weights file, number of epochs, then record files
+     **/
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: EvaluationTrainer out.properties epochs records...");
+            return;
+        }
+        Path out = Paths.get(args[0]);
+        int epochs = Integer.parseInt(args[1]);
+        List<Path> files = new ArrayList<Path>();
+        for (int i = 2; i < args.length; i++)
+            files.add(Paths.get(args[i]));
+
+        EvaluationTrainer trainer = new EvaluationTrainer();
+        FastRandom random = FastRandom.current();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            long start = System.currentTimeMillis();
+            trainer.epoch(files, epoch, random);
+            System.out.println("epoch " + epoch + ": " + trainer.report() + " ("
+                    + (System.currentTimeMillis() - start) + "ms)");
+            LinearEvaluator.store(trainer.getWeights(), out, "fitted by EvaluationTrainer, epoch " + epoch);
+        }
+    }
+}
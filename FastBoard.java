@@ -0,0 +1,1025 @@
+package threeChess.agents;
+
+import java.util.*;
+import threeChess.*;
+
+/**
+ * A compact, mutable copy of a threeChess Board for search. Squares are
+ * Position ordinals and pieces are small ints, so moves can be made and unmade
+ * in place instead of cloning Boards.
+ *
+ * The board keeps an incremental attack map: for every square, the number of
+ * pieces of each colour attacking it and the set of attacking squares. Make and
+ * unmake only recompute the moving and captured pieces and the sliders whose
+ * rays pass through the two changed squares, so questions such as "is this
+ * king attacked" are lookups. In threeChess a king may legally be left en
+ * prise (the game ends when a king is taken), so legal moves are exactly the
+ * pseudo-legal moves and generation never needs a trial move.
+ *
+ * Moves are packed as from << 7 | to, which fits in 14 bits. Castling is the
+ * king's move two squares along its back row, and make moves the rook too. It
+ * is generated while neither the king nor that rook has left its starting
+ * square and the squares between them are empty; a board copied from a Board
+ * reads which pieces have moved from the game's history.
+ *
+ **/
+public class FastBoard {
+
+    // CONSTANTS
+    public static final int SQUARES = 96;
+    public static final int MAX_MOVES = 512;
+    public static final int EMPTY = 0;
+    public static final int NULL_MOVE = -1;
+    public static final Position[] POSITIONS = Position.values();
+    public static final Colour[] COLOURS = Colour.values();
+    public static final PieceType[] TYPES = PieceType.values();
+    private static final int KINDS = COLOURS.length * TYPES.length;
+
+    // move kinds of a step, used by the generator
+    private static final int STEP_NORMAL = 0;
+    private static final int STEP_PAWN_PUSH = 1;
+    private static final int STEP_PAWN_DOUBLE = 2;
+    private static final int STEP_PAWN_CAPTURE = 3;
+    private static final int STEP_CASTLE = 4;
+
+    // GEOMETRY TABLES
+    // rays[kind][square][step] lists the squares reached by 1, 2, ... reps of a
+    // step, computed once from Board.step so they follow the game's geometry
+    private static final int[][][][] RAYS = new int[KINDS + 1][][][];
+    private static final int[][] STEP_KINDS = new int[TYPES.length][];
+    private static final boolean[] SLIDER = new boolean[KINDS + 1];
+    private static final int[] VALUE = new int[KINDS + 1];
+    private static final int[] PIECE_COLOUR = new int[KINDS + 1];
+    private static final int[] PIECE_TYPE = new int[KINDS + 1];
+
+    // castling per colour and side (0 towards column 0, 1 towards column 7):
+    // the squares the king and rook move from and to, the squares between them
+    // that must be empty, and per square the rights lost when it is touched
+    private static final int[] CASTLE_KING_FROM = new int[COLOURS.length];
+    private static final int[][] CASTLE_KING_TO = new int[COLOURS.length][2];
+    private static final int[][] CASTLE_ROOK_FROM = new int[COLOURS.length][2];
+    private static final int[][] CASTLE_ROOK_TO = new int[COLOURS.length][2];
+    private static final int[][][] CASTLE_EMPTY = new int[COLOURS.length][2][];
+    private static final int[] CASTLE_TOUCH = new int[SQUARES];
+
+    static {
+        Board geometry = new Board(0);
+        for (PieceType type : TYPES) {
+            Direction[][] steps = type.getSteps();
+            STEP_KINDS[type.ordinal()] = new int[steps.length];
+            for (int d = 0; d < steps.length; d++)
+                STEP_KINDS[type.ordinal()][d] = stepKind(type, steps[d]);
+        }
+        for (Colour colour : COLOURS) {
+            for (PieceType type : TYPES) {
+                int piece = piece(colour.ordinal(), type.ordinal());
+                Piece mover = new Piece(type, colour);
+                Direction[][] steps = type.getSteps();
+                int reps = type.getStepReps();
+                PIECE_COLOUR[piece] = colour.ordinal();
+                PIECE_TYPE[piece] = type.ordinal();
+                VALUE[piece] = mover.getValue();
+                SLIDER[piece] = reps > 1;
+                RAYS[piece] = new int[SQUARES][steps.length][];
+                for (Position start : POSITIONS) {
+                    for (int d = 0; d < steps.length; d++) {
+                        int[] ray = new int[reps];
+                        int length = 0;
+                        Position end = start;
+                        try {
+                            for (int rep = 0; rep < reps; rep++) {
+                                end = geometry.step(mover, steps[d], end, start.getColour() != end.getColour());
+                                if (end == start)
+                                    break;
+                                ray[length++] = end.ordinal();
+                            }
+                        } catch (ImpossiblePositionException e) {
+                        }
+                        RAYS[piece][start.ordinal()][d] = Arrays.copyOf(ray, length);
+                    }
+                }
+            }
+        }
+    }
+
+    static {
+        try {
+            for (Colour colour : COLOURS) {
+                int c = colour.ordinal();
+                CASTLE_KING_FROM[c] = Position.get(colour, 0, 4).ordinal();
+                for (int side = 0; side < 2; side++) {
+                    int step = side == 0 ? -1 : 1;
+                    int rookColumn = side == 0 ? 0 : 7;
+                    CASTLE_KING_TO[c][side] = Position.get(colour, 0, 4 + 2 * step).ordinal();
+                    CASTLE_ROOK_FROM[c][side] = Position.get(colour, 0, rookColumn).ordinal();
+                    CASTLE_ROOK_TO[c][side] = Position.get(colour, 0, 4 + step).ordinal();
+                    CASTLE_EMPTY[c][side] = new int[Math.abs(rookColumn - 4) - 1];
+                    for (int i = 0; i < CASTLE_EMPTY[c][side].length; i++)
+                        CASTLE_EMPTY[c][side][i] = Position.get(colour, 0, 4 + step * (i + 1)).ordinal();
+                    CASTLE_TOUCH[CASTLE_KING_FROM[c]] |= castleRight(c, side);
+                    CASTLE_TOUCH[CASTLE_ROOK_FROM[c][side]] |= castleRight(c, side);
+                }
+            }
+        } catch (ImpossiblePositionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int castleRight(int colour, int side) {
+        return 1 << (2 * colour + side);
+    }
+
+    /**
+     * Classifies a step of a piece type for move generation.
+     **/
+    private static int stepKind(PieceType type, Direction[] step) {
+        boolean lateral = false;
+        for (Direction d : step)
+            lateral |= d == Direction.LEFT || d == Direction.RIGHT;
+        if (type == PieceType.PAWN) {
+            if (lateral)
+                return STEP_PAWN_CAPTURE;
+            return step.length == 1 ? STEP_PAWN_PUSH : STEP_PAWN_DOUBLE;
+        }
+        if (type == PieceType.KING && step.length == 2 && step[0] == step[1] && lateral)
+            return STEP_CASTLE;
+        return STEP_NORMAL;
+    }
+
+    // STATE
+    private final int[] squares = new int[SQUARES];
+    private int turn;
+    private boolean gameOver;
+    private int winner = -1;
+    private int loser = -1;
+    private final int[] kingSquare = { -1, -1, -1 };
+    // a bit per colour and side, set while castling there is still allowed
+    private int castleRights;
+
+    // evaluation terms kept up to date by make and unmake: material taken by
+    // each colour from each colour, the square table sum of each colour, and
+    // the number of squares each colour attacks (counted per attacker)
+    private final int[] captureValue = new int[COLOURS.length * COLOURS.length];
+    private final int[] pieceSquare = new int[COLOURS.length];
+    private final int[] mobility = new int[COLOURS.length];
+    private int[][] squareTable = PieceSquareTable.TABLE;
+
+    // attack map: count per colour and square, attacking squares as 96 bit sets
+    private final int[][] attackCount = new int[COLOURS.length][SQUARES];
+    private final long[] attackersLow = new long[SQUARES];
+    private final int[] attackersHigh = new int[SQUARES];
+    private final int[] attackList = new int[SQUARES * SQUARES];
+    private final int[] attackLength = new int[SQUARES];
+    private final int[] sliderScratch = new int[SQUARES];
+
+    // undo stack: move, captured piece, moved piece, and prior game state and
+    // castling rights
+    private static final int MAX_PLY = 2048;
+    private final int[] undoMove = new int[MAX_PLY];
+    private final int[] undoCaptured = new int[MAX_PLY];
+    private final int[] undoMoved = new int[MAX_PLY];
+    private final int[] undoState = new int[MAX_PLY];
+    private final int[] undoRights = new int[MAX_PLY];
+    private int ply = 0;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates an empty board with blue to move.
+     **/
+    public FastBoard() {
+    }
+
+    /**
+     * Copies the pieces and turn of a game board, and the castling rights its
+     * history leaves.
+     *
+     * @param board the board to copy
+     **/
+    public FastBoard(Board board) {
+        for (Position position : POSITIONS) {
+            Piece piece = board.getPiece(position);
+            if (piece != null) {
+                int code = piece(piece.getColour().ordinal(), piece.getType().ordinal());
+                squares[position.ordinal()] = code;
+                if (piece.getType() == PieceType.KING)
+                    kingSquare[piece.getColour().ordinal()] = position.ordinal();
+            }
+        }
+        castleRights = homeRights();
+        for (int i = 0; i < board.getMoveCount() && castleRights != 0; i++) {
+            Position[] move = board.getMove(i);
+            if (move != null)
+                castleRights &= ~(CASTLE_TOUCH[move[0].ordinal()] | CASTLE_TOUCH[move[1].ordinal()]);
+        }
+        turn = board.getTurn().ordinal();
+        gameOver = board.gameOver();
+        if (gameOver) {
+            winner = board.getWinner() == null ? -1 : board.getWinner().ordinal();
+            loser = board.getLoser() == null ? -1 : board.getLoser().ordinal();
+        }
+        for (Colour player : COLOURS)
+            for (Piece piece : board.getCaptured(player))
+                captureValue[player.ordinal() * COLOURS.length + piece.getColour().ordinal()] += piece.getValue();
+        for (int square = 0; square < SQUARES; square++)
+            if (squares[square] != EMPTY) {
+                addAttacks(square);
+                pieceSquare[PIECE_COLOUR[squares[square]]] += squareTable[squares[square]][square];
+            }
+    }
+
+    /**
+     * Replaces the position with the given pieces and colour to move. Kings and
+     * rooks on their starting squares are taken not to have moved.
+     *
+     * @param pieces piece code for each square, EMPTY for none
+     * @param turn   ordinal of the colour to move
+     **/
+    public void setPosition(int[] pieces, int turn) {
+        Arrays.fill(kingSquare, -1);
+        for (int c = 0; c < COLOURS.length; c++)
+            Arrays.fill(attackCount[c], 0);
+        Arrays.fill(attackersLow, 0);
+        Arrays.fill(attackersHigh, 0);
+        Arrays.fill(attackLength, 0);
+        Arrays.fill(captureValue, 0);
+        Arrays.fill(pieceSquare, 0);
+        Arrays.fill(mobility, 0);
+        for (int square = 0; square < SQUARES; square++) {
+            squares[square] = pieces[square];
+            if (pieces[square] != EMPTY && PIECE_TYPE[pieces[square]] == PieceType.KING.ordinal())
+                kingSquare[PIECE_COLOUR[pieces[square]]] = square;
+        }
+        for (int square = 0; square < SQUARES; square++)
+            if (squares[square] != EMPTY) {
+                addAttacks(square);
+                pieceSquare[PIECE_COLOUR[squares[square]]] += squareTable[squares[square]][square];
+            }
+        castleRights = homeRights();
+        this.turn = turn;
+        gameOver = false;
+        winner = -1;
+        loser = -1;
+        ply = 0;
+    }
+
+    /**
+     * Copies another FastBoard into this one without allocating. The undo
+     * history is not copied.
+     *
+     * @param other the board to copy
+     **/
+    public void copyFrom(FastBoard other) {
+        System.arraycopy(other.squares, 0, squares, 0, SQUARES);
+        System.arraycopy(other.kingSquare, 0, kingSquare, 0, kingSquare.length);
+        System.arraycopy(other.captureValue, 0, captureValue, 0, captureValue.length);
+        System.arraycopy(other.pieceSquare, 0, pieceSquare, 0, pieceSquare.length);
+        System.arraycopy(other.mobility, 0, mobility, 0, mobility.length);
+        squareTable = other.squareTable;
+        for (int c = 0; c < COLOURS.length; c++)
+            System.arraycopy(other.attackCount[c], 0, attackCount[c], 0, SQUARES);
+        System.arraycopy(other.attackersLow, 0, attackersLow, 0, SQUARES);
+        System.arraycopy(other.attackersHigh, 0, attackersHigh, 0, SQUARES);
+        System.arraycopy(other.attackList, 0, attackList, 0, attackList.length);
+        System.arraycopy(other.attackLength, 0, attackLength, 0, SQUARES);
+        castleRights = other.castleRights;
+        turn = other.turn;
+        gameOver = other.gameOver;
+        winner = other.winner;
+        loser = other.loser;
+        ply = 0;
+    }
+
+    /**
+     * @return the castling rights of the kings and rooks on their starting
+     *         squares
+     **/
+    private int homeRights() {
+        int rights = 0;
+        for (int c = 0; c < COLOURS.length; c++)
+            for (int side = 0; side < 2; side++)
+                if (squares[CASTLE_KING_FROM[c]] == piece(c, PieceType.KING.ordinal())
+                        && squares[CASTLE_ROOK_FROM[c][side]] == piece(c, PieceType.ROOK.ordinal()))
+                    rights |= castleRight(c, side);
+        return rights;
+    }
+
+    // PIECE AND MOVE ENCODING
+
+    public static int piece(int colour, int type) {
+        return 1 + colour * TYPES.length + type;
+    }
+
+    public static int colourOf(int piece) {
+        return PIECE_COLOUR[piece];
+    }
+
+    public static int typeOf(int piece) {
+        return PIECE_TYPE[piece];
+    }
+
+    public static int valueOf(int piece) {
+        return VALUE[piece];
+    }
+
+    public static int move(int from, int to) {
+        return from << 7 | to;
+    }
+
+    public static int from(int move) {
+        return move >>> 7;
+    }
+
+    public static int to(int move) {
+        return move & 0x7F;
+    }
+
+    /**
+     * @return the move as the two element Position array used by Board
+     **/
+    public static Position[] toPositions(int move) {
+        return new Position[] { POSITIONS[from(move)], POSITIONS[to(move)] };
+    }
+
+    public static int fromPositions(Position start, Position end) {
+        return move(start.ordinal(), end.ordinal());
+    }
+
+    // ACCESSORS
+
+    public int getPiece(int square) {
+        return squares[square];
+    }
+
+    public int getTurn() {
+        return turn;
+    }
+
+    public boolean gameOver() {
+        return gameOver;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public int getLoser() {
+        return loser;
+    }
+
+    public int getKingSquare(int colour) {
+        return kingSquare[colour];
+    }
+
+    /**
+     * @return the number of pieces of a colour attacking a square
+     **/
+    public int attackCount(int colour, int square) {
+        return attackCount[colour][square];
+    }
+
+    /**
+     * @return true if any colour other than the given one attacks the square
+     **/
+    public boolean attackedByOpponent(int colour, int square) {
+        for (int c = 0; c < COLOURS.length; c++)
+            if (c != colour && attackCount[c][square] > 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return true if the king of a colour is attacked by an opponent
+     **/
+    public boolean kingAttacked(int colour) {
+        return kingSquare[colour] >= 0 && attackedByOpponent(colour, kingSquare[colour]);
+    }
+
+    /**
+     * Checks whether playing a move would leave the mover's king attacked,
+     * by making and unmaking it. Only the changed squares are updated, so this
+     * costs about as much as generating one piece's moves.
+     *
+     * @param move packed move for the colour to move
+     * @return true if the king is attacked after the move
+     **/
+    public boolean leavesKingAttacked(int move) {
+        int mover = turn;
+        make(move);
+        boolean attacked = kingAttacked(mover);
+        unmake();
+        return attacked;
+    }
+
+    // EVALUATION
+
+    /**
+     * Material utility, as MaxNAgent.myPiecesUtility: each colour gains the
+     * value of the pieces it has taken and loses the value of the pieces taken
+     * from it.
+     *
+     * @param utility array of three entries to fill
+     **/
+    public void piecesUtility(int[] utility) {
+        for (int c = 0; c < COLOURS.length; c++) {
+            int value = 0;
+            for (int o = 0; o < COLOURS.length; o++)
+                value += captureValue[c * COLOURS.length + o] - captureValue[o * COLOURS.length + c];
+            utility[c] = value;
+        }
+    }
+
+    /**
+     * Material utility, as MaxNAgent.myGrudgeUtility: as piecesUtility, except
+     * that the grudging colour only counts pieces taken from its victim, the
+     * colour after it.
+     *
+     * @param me      the grudging colour
+     * @param utility array of three entries to fill
+     **/
+    public void grudgeUtility(int me, int[] utility) {
+        piecesUtility(utility);
+        int victim = (me + 1) % COLOURS.length;
+        for (int o = 0; o < COLOURS.length; o++)
+            if (o != victim)
+                utility[me] -= captureValue[me * COLOURS.length + o];
+    }
+
+    /**
+     * Material and piece-square evaluation in O(1) from the incremental terms,
+     * in hundredths of a pawn.
+     *
+     * @param grudge  the grudging colour, or -1 for plain material
+     * @param utility array of three entries to fill
+     **/
+    public void evaluate(int grudge, int[] utility) {
+        if (grudge >= 0)
+            grudgeUtility(grudge, utility);
+        else
+            piecesUtility(utility);
+        for (int c = 0; c < COLOURS.length; c++)
+            utility[c] = utility[c] * PieceSquareTable.MATERIAL_SCALE + pieceSquare[c];
+    }
+
+    /**
+     * @return the value of a piece on a square in the table summed by
+     *         pieceSquareScore
+     **/
+    public int squareValue(int piece, int square) {
+        return squareTable[piece][square];
+    }
+
+    /**
+     * @return the square table sum of a colour's pieces
+     **/
+    public int pieceSquareScore(int colour) {
+        return pieceSquare[colour];
+    }
+
+    /**
+     * Replaces the piece-square table summed by pieceSquareScore, for
+     * evaluators with their own table, and recomputes the sums.
+     *
+     * @param table value per piece code and square
+     **/
+    public void setSquareTable(int[][] table) {
+        squareTable = table;
+        Arrays.fill(pieceSquare, 0);
+        for (int square = 0; square < SQUARES; square++)
+            if (squares[square] != EMPTY)
+                pieceSquare[PIECE_COLOUR[squares[square]]] += table[squares[square]][square];
+    }
+
+    /**
+     * @return the number of (attacker, square) pairs of a colour, kept
+     *         incrementally from the attack map
+     **/
+    public int mobility(int colour) {
+        return mobility[colour];
+    }
+
+    /**
+     * Counts the attacks of a set of colours on a king and the squares next to
+     * it.
+     *
+     * @param king      the colour whose king is examined
+     * @param attackers true to count opponents' attacks, false to count the
+     *                  king colour's own defenders
+     * @return the number of attacks on the king zone, 0 if the king is gone
+     **/
+    public int kingZoneAttacks(int king, boolean attackers) {
+        int square = kingSquare[king];
+        if (square < 0)
+            return 0;
+        int total = zoneAttacks(king, square, attackers);
+        int[][] rays = RAYS[piece(king, PieceType.KING.ordinal())][square];
+        int[] kinds = STEP_KINDS[PieceType.KING.ordinal()];
+        for (int d = 0; d < rays.length; d++)
+            if (kinds[d] != STEP_CASTLE && rays[d].length > 0)
+                total += zoneAttacks(king, rays[d][0], attackers);
+        return total;
+    }
+
+    private int zoneAttacks(int king, int square, boolean attackers) {
+        if (!attackers)
+            return attackCount[king][square];
+        int total = 0;
+        for (int c = 0; c < COLOURS.length; c++)
+            if (c != king)
+                total += attackCount[c][square];
+        return total;
+    }
+
+    // MOVE GENERATION
+
+    /**
+     * Generates the legal moves of the colour to move.
+     *
+     * @param moves array of at least MAX_MOVES entries to fill
+     * @return the number of moves generated
+     **/
+    public int generateMoves(int[] moves) {
+        int count = 0;
+        for (int from = 0; from < SQUARES; from++) {
+            int piece = squares[from];
+            if (piece != EMPTY && PIECE_COLOUR[piece] == turn)
+                count = generatePieceMoves(from, piece, moves, count);
+        }
+        return count;
+    }
+
+    /**
+     * Generates only the captures of the colour to move, read from the attack
+     * map: for each square held by an opponent, every attacker of our colour.
+     * Castling and pawn pushes never capture, so this is exactly the captures
+     * among generateMoves, without walking any rays.
+     *
+     * @param moves array of at least MAX_MOVES entries to fill
+     * @return the number of captures generated
+     **/
+    public int generateCaptures(int[] moves) {
+        return generateCaptures(moves, -1);
+    }
+
+    /**
+     * Generates the captures of the colour to move, as generateCaptures, taking
+     * only pieces of one colour if asked and ordered most valuable victim first,
+     * cheaper attacker first among equal victims.
+     *
+     * @param moves   array of at least MAX_MOVES entries to fill
+     * @param victims the colour whose pieces may be taken, or -1 for either
+     *                opponent
+     * @return the number of captures generated
+     **/
+    public int generateCapturesByValue(int[] moves, int victims) {
+        int count = generateCaptures(moves, victims);
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int key = captureKey(move);
+            int j = i - 1;
+            for (; j >= 0 && captureKey(moves[j]) < key; j--)
+                moves[j + 1] = moves[j];
+            moves[j + 1] = move;
+        }
+        return count;
+    }
+
+    private int captureKey(int move) {
+        return 64 * VALUE[squares[to(move)]] - VALUE[squares[from(move)]];
+    }
+
+    private int generateCaptures(int[] moves, int victims) {
+        int count = 0;
+        for (int to = 0; to < SQUARES; to++) {
+            int victim = squares[to];
+            if (victim == EMPTY || PIECE_COLOUR[victim] == turn || attackCount[turn][to] == 0)
+                continue;
+            if (victims >= 0 && PIECE_COLOUR[victim] != victims)
+                continue;
+            long low = attackersLow[to];
+            while (low != 0) {
+                int from = Long.numberOfTrailingZeros(low);
+                low &= low - 1;
+                if (PIECE_COLOUR[squares[from]] == turn)
+                    moves[count++] = move(from, to);
+            }
+            int high = attackersHigh[to];
+            while (high != 0) {
+                int from = 64 + Integer.numberOfTrailingZeros(high);
+                high &= high - 1;
+                if (PIECE_COLOUR[squares[from]] == turn)
+                    moves[count++] = move(from, to);
+            }
+        }
+        return count;
+    }
+
+    private int generatePieceMoves(int from, int piece, int[] moves, int count) {
+        int[][] rays = RAYS[piece][from];
+        int[] kinds = STEP_KINDS[PIECE_TYPE[piece]];
+        int colour = PIECE_COLOUR[piece];
+        for (int d = 0; d < rays.length; d++) {
+            int[] ray = rays[d];
+            if (ray.length == 0)
+                continue;
+            switch (kinds[d]) {
+                case STEP_PAWN_PUSH:
+                    if (squares[ray[0]] == EMPTY)
+                        moves[count++] = move(from, ray[0]);
+                    break;
+                case STEP_PAWN_DOUBLE:
+                    if (pawnCanDouble(from, colour, ray[0]))
+                        moves[count++] = move(from, ray[0]);
+                    break;
+                case STEP_PAWN_CAPTURE:
+                    if (squares[ray[0]] != EMPTY && PIECE_COLOUR[squares[ray[0]]] != colour)
+                        moves[count++] = move(from, ray[0]);
+                    break;
+                case STEP_CASTLE:
+                    // from the castling rights, below
+                    break;
+                default:
+                    for (int i = 0; i < ray.length; i++) {
+                        int target = squares[ray[i]];
+                        if (target == EMPTY) {
+                            moves[count++] = move(from, ray[i]);
+                            continue;
+                        }
+                        if (PIECE_COLOUR[target] != colour)
+                            moves[count++] = move(from, ray[i]);
+                        break;
+                    }
+            }
+        }
+        if (castleRights != 0 && PIECE_TYPE[piece] == PieceType.KING.ordinal())
+            count = generateCastles(from, colour, moves, count);
+        return count;
+    }
+
+    private int generateCastles(int from, int colour, int[] moves, int count) {
+        if (from != CASTLE_KING_FROM[colour])
+            return count;
+        for (int side = 0; side < 2; side++) {
+            if ((castleRights & castleRight(colour, side)) == 0)
+                continue;
+            boolean clear = true;
+            for (int square : CASTLE_EMPTY[colour][side])
+                clear &= squares[square] == EMPTY;
+            if (clear)
+                moves[count++] = move(from, CASTLE_KING_TO[colour][side]);
+        }
+        return count;
+    }
+
+    /**
+     * @return the side a move castles towards, or -1 if it does not castle
+     **/
+    private static int castleSide(int moved, int from, int to) {
+        if (PIECE_TYPE[moved] != PieceType.KING.ordinal() || from != CASTLE_KING_FROM[PIECE_COLOUR[moved]])
+            return -1;
+        for (int side = 0; side < 2; side++)
+            if (to == CASTLE_KING_TO[PIECE_COLOUR[moved]][side])
+                return side;
+        return -1;
+    }
+
+    /**
+     * A pawn may advance two squares from its second row in its own section if
+     * both squares in front of it are empty.
+     **/
+    private boolean pawnCanDouble(int from, int colour, int to) {
+        Position start = POSITIONS[from];
+        if (start.getColour().ordinal() != colour || start.getRow() != 1 || squares[to] != EMPTY)
+            return false;
+        int[] push = pushRay(from, squares[from]);
+        return push.length > 0 && squares[push[0]] == EMPTY;
+    }
+
+    private static int[] pushRay(int from, int piece) {
+        int[] kinds = STEP_KINDS[PIECE_TYPE[piece]];
+        for (int d = 0; d < kinds.length; d++)
+            if (kinds[d] == STEP_PAWN_PUSH)
+                return RAYS[piece][from][d];
+        return new int[0];
+    }
+
+    /**
+     * A cheap ordering heuristic for a move of the colour to move: taking a
+     * king first, then captures by victim value with cheaper attackers first,
+     * promotions, and moves of attacked pieces to unattacked squares; moving a
+     * piece onto an attacked square is discouraged. Attacks are those of the
+     * current position, before the move.
+     *
+     * @param move a packed move
+     * @return a score, higher for moves worth trying first
+     **/
+    public int orderingScore(int move) {
+        int from = from(move);
+        int to = to(move);
+        int moved = squares[from];
+        int captured = squares[to];
+        int colour = PIECE_COLOUR[moved];
+        if (captured != EMPTY && PIECE_TYPE[captured] == PieceType.KING.ordinal())
+            return 1 << 20;
+        int score = 0;
+        if (captured != EMPTY)
+            score += 16 * VALUE[captured] - VALUE[moved];
+        Position end = POSITIONS[to];
+        if (PIECE_TYPE[moved] == PieceType.PAWN.ordinal() && end.getRow() == 0 && end.getColour().ordinal() != colour)
+            score += 16 * (VALUE[piece(colour, PieceType.QUEEN.ordinal())] - VALUE[moved]);
+        if (PIECE_TYPE[moved] != PieceType.KING.ordinal()) {
+            if (attackedByOpponent(colour, from))
+                score += 4 * VALUE[moved];
+            if (attackedByOpponent(colour, to))
+                score -= 4 * VALUE[moved];
+        }
+        return score;
+    }
+
+    /**
+     * Scores moves with orderingScore, for picking them lazily with pickBest.
+     *
+     * @param moves  the moves
+     * @param count  number of moves
+     * @param scores array of at least count entries to fill
+     **/
+    public void scoreMoves(int[] moves, int count, int[] scores) {
+        for (int i = 0; i < count; i++)
+            scores[i] = orderingScore(moves[i]);
+    }
+
+    /**
+     * Swaps the best scored of moves[from..count) into position from. Picking
+     * one move at a time is cheaper than sorting when a search cuts off after
+     * the first few moves.
+     *
+     * @return the move now at from
+     **/
+    public static int pickBest(int[] moves, int[] scores, int from, int count) {
+        int best = from;
+        for (int i = from + 1; i < count; i++)
+            if (scores[i] > scores[best])
+                best = i;
+        int move = moves[best];
+        int score = scores[best];
+        moves[best] = moves[from];
+        scores[best] = scores[from];
+        moves[from] = move;
+        scores[from] = score;
+        return move;
+    }
+
+    /**
+     * Sorts moves by orderingScore, best first.
+     *
+     * @param moves  the moves to sort in place
+     * @param count  number of moves
+     * @param scores scratch array of at least count entries
+     **/
+    public void orderMoves(int[] moves, int count, int[] scores) {
+        for (int i = 0; i < count; i++)
+            scores[i] = orderingScore(moves[i]);
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            for (; j >= 0 && scores[j] < score; j--) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Picks a uniformly random legal move.
+     *
+     * @param random the generator to draw from
+     * @param moves  scratch array of at least MAX_MOVES entries
+     * @return a packed move, or -1 if the colour to move has no legal move
+     **/
+    public int randomMove(FastRandom random, int[] moves) {
+        int count = generateMoves(moves);
+        return count == 0 ? -1 : moves[random.nextInt(count)];
+    }
+
+    // ATTACK MAP MAINTENANCE
+
+    /**
+     * Records the squares attacked by the piece on a square: each step target
+     * for knights, kings and pawn captures, and each ray up to and including
+     * the first occupied square for sliders.
+     **/
+    private void addAttacks(int square) {
+        int piece = squares[square];
+        int colour = PIECE_COLOUR[piece];
+        int[][] rays = RAYS[piece][square];
+        int[] kinds = STEP_KINDS[PIECE_TYPE[piece]];
+        int base = square * SQUARES;
+        int length = 0;
+        for (int d = 0; d < rays.length; d++) {
+            int kind = kinds[d];
+            if (kind == STEP_PAWN_PUSH || kind == STEP_PAWN_DOUBLE || kind == STEP_CASTLE)
+                continue;
+            int[] ray = rays[d];
+            for (int i = 0; i < ray.length; i++) {
+                int target = ray[i];
+                attackList[base + length++] = target;
+                attackCount[colour][target]++;
+                if (square < 64)
+                    attackersLow[target] |= 1L << square;
+                else
+                    attackersHigh[target] |= 1 << (square - 64);
+                if (squares[target] != EMPTY)
+                    break;
+            }
+        }
+        attackLength[square] = length;
+        mobility[colour] += length;
+    }
+
+    private void removeAttacks(int square) {
+        int colour = PIECE_COLOUR[squares[square]];
+        int base = square * SQUARES;
+        for (int i = 0; i < attackLength[square]; i++) {
+            int target = attackList[base + i];
+            attackCount[colour][target]--;
+            if (square < 64)
+                attackersLow[target] &= ~(1L << square);
+            else
+                attackersHigh[target] &= ~(1 << (square - 64));
+        }
+        mobility[colour] -= attackLength[square];
+        attackLength[square] = 0;
+    }
+
+    /**
+     * Sets two squares and updates the attack map. Only the pieces on the two
+     * squares and the sliders attacking either square can change their attacks.
+     **/
+    private void setSquares(int a, int pieceA, int b, int pieceB) {
+        long low = (attackersLow[a] | attackersLow[b]);
+        int high = (attackersHigh[a] | attackersHigh[b]);
+        if (a < 64) low &= ~(1L << a); else high &= ~(1 << (a - 64));
+        if (b < 64) low &= ~(1L << b); else high &= ~(1 << (b - 64));
+
+        int sliders = 0;
+        while (low != 0) {
+            int square = Long.numberOfTrailingZeros(low);
+            low &= low - 1;
+            if (SLIDER[squares[square]])
+                sliderScratch[sliders++] = square;
+        }
+        while (high != 0) {
+            int square = 64 + Integer.numberOfTrailingZeros(high);
+            high &= high - 1;
+            if (SLIDER[squares[square]])
+                sliderScratch[sliders++] = square;
+        }
+
+        for (int i = 0; i < sliders; i++)
+            removeAttacks(sliderScratch[i]);
+        if (squares[a] != EMPTY) {
+            removeAttacks(a);
+            pieceSquare[PIECE_COLOUR[squares[a]]] -= squareTable[squares[a]][a];
+        }
+        if (squares[b] != EMPTY) {
+            removeAttacks(b);
+            pieceSquare[PIECE_COLOUR[squares[b]]] -= squareTable[squares[b]][b];
+        }
+        squares[a] = pieceA;
+        squares[b] = pieceB;
+        if (pieceA != EMPTY)
+            pieceSquare[PIECE_COLOUR[pieceA]] += squareTable[pieceA][a];
+        if (pieceB != EMPTY)
+            pieceSquare[PIECE_COLOUR[pieceB]] += squareTable[pieceB][b];
+        for (int i = 0; i < sliders; i++)
+            addAttacks(sliderScratch[i]);
+        if (pieceA != EMPTY)
+            addAttacks(a);
+        if (pieceB != EMPTY)
+            addAttacks(b);
+    }
+
+    // MAKE AND UNMAKE
+
+    /**
+     * Plays a move for the colour to move. Taking a king ends the game, a pawn
+     * reaching the back row of another section becomes a queen, and a castling
+     * king brings its rook.
+     *
+     * @param move a packed legal move
+     **/
+    public void make(int move) {
+        int from = from(move);
+        int to = to(move);
+        int moved = squares[from];
+        int captured = squares[to];
+        undoMove[ply] = move;
+        undoMoved[ply] = moved;
+        undoCaptured[ply] = captured;
+        undoState[ply] = gameOver ? 1 + (winner + 1) * 4 + (loser + 1) : 0;
+        undoRights[ply] = castleRights;
+        ply++;
+
+        int placed = placedPiece(move);
+        setSquares(from, EMPTY, to, placed);
+        int side = castleSide(moved, from, to);
+        if (side >= 0) {
+            int rookFrom = CASTLE_ROOK_FROM[PIECE_COLOUR[moved]][side];
+            setSquares(rookFrom, EMPTY, CASTLE_ROOK_TO[PIECE_COLOUR[moved]][side], squares[rookFrom]);
+        }
+        castleRights &= ~(CASTLE_TOUCH[from] | CASTLE_TOUCH[to]);
+        if (captured != EMPTY)
+            captureValue[PIECE_COLOUR[moved] * COLOURS.length + PIECE_COLOUR[captured]] += VALUE[captured];
+
+        if (PIECE_TYPE[moved] == PieceType.KING.ordinal())
+            kingSquare[PIECE_COLOUR[moved]] = to;
+        if (captured != EMPTY && PIECE_TYPE[captured] == PieceType.KING.ordinal()) {
+            kingSquare[PIECE_COLOUR[captured]] = -1;
+            gameOver = true;
+            winner = PIECE_COLOUR[moved];
+            loser = PIECE_COLOUR[captured];
+        }
+        turn = (turn + 1) % COLOURS.length;
+    }
+
+    /**
+     * @param move a packed legal move
+     * @return the piece the move leaves on its target square: the moved piece,
+     *         or a queen for a pawn reaching the back row of another section
+     **/
+    public int placedPiece(int move) {
+        int moved = squares[from(move)];
+        Position end = POSITIONS[to(move)];
+        if (PIECE_TYPE[moved] == PieceType.PAWN.ordinal() && end.getRow() == 0
+                && end.getColour().ordinal() != PIECE_COLOUR[moved])
+            return piece(PIECE_COLOUR[moved], PieceType.QUEEN.ordinal());
+        return moved;
+    }
+
+    /**
+     * Passes the turn to the next colour without moving, for searches that
+     * skip a player. Taken back by unmake like any other move.
+     **/
+    public void makeNull() {
+        undoMove[ply] = NULL_MOVE;
+        undoMoved[ply] = EMPTY;
+        undoCaptured[ply] = EMPTY;
+        undoState[ply] = gameOver ? 1 + (winner + 1) * 4 + (loser + 1) : 0;
+        undoRights[ply] = castleRights;
+        ply++;
+        turn = (turn + 1) % COLOURS.length;
+    }
+
+    /**
+     * Takes back the last move made.
+     **/
+    public void unmake() {
+        ply--;
+        int move = undoMove[ply];
+        if (move == NULL_MOVE) {
+            turn = (turn + COLOURS.length - 1) % COLOURS.length;
+            return;
+        }
+        int from = from(move);
+        int to = to(move);
+        int moved = undoMoved[ply];
+        int captured = undoCaptured[ply];
+        int side = castleSide(moved, from, to);
+        if (side >= 0) {
+            int rookTo = CASTLE_ROOK_TO[PIECE_COLOUR[moved]][side];
+            setSquares(rookTo, EMPTY, CASTLE_ROOK_FROM[PIECE_COLOUR[moved]][side], squares[rookTo]);
+        }
+        setSquares(from, moved, to, captured);
+        if (captured != EMPTY)
+            captureValue[PIECE_COLOUR[moved] * COLOURS.length + PIECE_COLOUR[captured]] -= VALUE[captured];
+
+        if (PIECE_TYPE[moved] == PieceType.KING.ordinal())
+            kingSquare[PIECE_COLOUR[moved]] = from;
+        if (captured != EMPTY && PIECE_TYPE[captured] == PieceType.KING.ordinal())
+            kingSquare[PIECE_COLOUR[captured]] = to;
+        int state = undoState[ply];
+        gameOver = state != 0;
+        winner = state != 0 ? ((state - 1) >> 2) - 1 : -1;
+        loser = state != 0 ? ((state - 1) & 3) - 1 : -1;
+        castleRights = undoRights[ply];
+        turn = (turn + COLOURS.length - 1) % COLOURS.length;
+    }
+
+    /**
+     * Forgets the moves made so far, so that a long playout that never unmakes
+     * cannot overflow the undo stack.
+     **/
+    public void clearHistory() {
+        ply = 0;
+    }
+
+    /**
+     * @return the number of moves that can currently be unmade
+     **/
+    public int getPly() {
+        return ply;
+    }
+}
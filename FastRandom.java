@@ -0,0 +1,143 @@
+package threeChess.agents;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per-thread xoshiro256** random number generator for playouts and move
+ * sampling. Unlike a shared java.util.Random, each thread owns its generator,
+ * so there is no compare-and-set on a common seed when playouts run in
+ * parallel. Instances are not thread safe; always use current() on the thread
+ * that draws the numbers.
+ *
+ * Calling seed(), or starting the JVM with -DthreeChess.seed=n, makes every
+ * thread's stream reproducible: each thread is seeded from the root seed and
+ * the order in which threads ask for a generator.
+ *
+ **/
+public final class FastRandom {
+
+    // FIELDS
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final AtomicLong streams = new AtomicLong();
+    private static volatile long rootSeed = Long.getLong("threeChess.seed", System.nanoTime() ^ 0x5DEECE66DL);
+    private static volatile int epoch = 0;
+    private static final ThreadLocal<FastRandom> local = ThreadLocal.withInitial(FastRandom::nextStream);
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+    private int seededEpoch;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a generator with a fixed seed, independent of the per-thread
+     * generators.
+     *
+     * @param seed the seed
+     **/
+    public FastRandom(long seed) {
+        setSeed(seed);
+    }
+
+    // STATIC METHODS
+
+    /**
+     * @return the calling thread's generator
+     **/
+    public static FastRandom current() {
+        FastRandom random = local.get();
+        if (random.seededEpoch != epoch) {
+            random = nextStream();
+            local.set(random);
+        }
+        return random;
+    }
+
+    /**
+     * Seeds all per-thread generators. Threads pick up the new seed on their
+     * next call to current().
+     *
+     * @param seed the root seed
+     **/
+    public static synchronized void seed(long seed) {
+        rootSeed = seed;
+        streams.set(0);
+        epoch++;
+    }
+
+    private static FastRandom nextStream() {
+        FastRandom random = new FastRandom(rootSeed + GOLDEN_GAMMA * streams.getAndIncrement());
+        random.seededEpoch = epoch;
+        return random;
+    }
+
+    // METHODS
+
+    /**
+     * Reseeds this generator, expanding the seed with SplitMix64.
+     *
+     * @param seed the seed
+     **/
+    public void setSeed(long seed) {
+        s0 = mix(seed += GOLDEN_GAMMA);
+        s1 = mix(seed += GOLDEN_GAMMA);
+        s2 = mix(seed += GOLDEN_GAMMA);
+        s3 = mix(seed + GOLDEN_GAMMA);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the next 64 random bits
+     **/
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /**
+     * Returns a uniformly distributed int in [0, bound), using Lemire's
+     * multiply-shift reduction with rejection of the biased range.
+     *
+     * @param bound the exclusive upper bound, must be positive
+     * @return a random int below bound
+     **/
+    public int nextInt(int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        long m = (nextLong() >>> 32) * bound;
+        long low = m & 0xFFFFFFFFL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                low = m & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * @return a uniformly distributed double in [0, 1)
+     **/
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+}
@@ -1,6 +1,5 @@
 package threeChess.agents;
 import threeChess.*;
-import java.util.Random;
 
 /**
  * An interface for AI bots to implement.
@@ -15,7 +14,6 @@ import java.util.Random;
 public class FirstKillAgent extends Agent{
   
   private static final String name = "FirstK";
-  private static final Random random = new Random();
 
 
   /**
@@ -47,6 +45,7 @@ public class FirstKillAgent extends Agent{
 
 
   public Position[] playMove(Board board){
+    FastRandom random = FastRandom.current();
     Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
     Position start = pieces[0];
     Position end = pieces[0]; //dummy illegal move
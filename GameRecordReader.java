@@ -0,0 +1,220 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Iterates the games of a GameRecorder file through a memory mapped window.
+ * The reader is a cursor: next() advances to the following game and the
+ * accessors read that game's fields straight from the mapping, so iterating
+ * millions of games allocates nothing unless names are decoded. Files larger
+ * than the window are read by remapping at the current game.
+ *
+ * <pre>
+ * try (GameRecordReader reader = new GameRecordReader(path)) {
+ *     while (reader.next())
+ *         count += reader.getMoveCount();
+ * }
+ * </pre>
+ *
+ **/
+public class GameRecordReader implements Closeable {
+
+    // FIELDS
+    private static final long WINDOW = 1L << 28;
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long offset;
+
+    // fields of the current game, as positions in the window
+    private int flags;
+    private int winner;
+    private int loser;
+    private final int[] nameAt = new int[3];
+    private final int[] timeLeft = new int[3];
+    private int startAt;
+    private int moveCount;
+    private int movesAt;
+
+    /**
+     * Opens a record file.
+     *
+     * @param path the file to read
+     * @throws IOException if the file cannot be read or is not a record file
+     **/
+    public GameRecordReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0, Math.min(WINDOW, fileSize));
+        for (int i = 0; i < GameRecorder.MAGIC.length; i++)
+            if (fileSize <= GameRecorder.MAGIC.length || window.get(i) != GameRecorder.MAGIC[i])
+                throw new IOException("not a game record file: " + path);
+        if (window.get(GameRecorder.MAGIC.length) != GameRecorder.VERSION)
+            throw new IOException("unsupported record version " + window.get(GameRecorder.MAGIC.length));
+        offset = GameRecorder.MAGIC.length + 1;
+    }
+
+    private void map(long start, long size) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+    }
+
+    /**
+     * Ensures the bytes [from, from + size) of the file are in the window.
+     **/
+    private void cover(long from, long size) throws IOException {
+        if (from >= windowStart && from + size <= windowStart + window.capacity())
+            return;
+        map(from, Math.min(Math.max(size, WINDOW), fileSize - from));
+    }
+
+    // CURSOR
+
+    /**
+     * Advances to the next game.
+     *
+     * @return false at the end of the file
+     * @throws IOException if the file cannot be mapped
+     **/
+    public boolean next() throws IOException {
+        if (offset >= fileSize)
+            return false;
+        cover(offset, Math.min(5, fileSize - offset));
+        int at = (int) (offset - windowStart);
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = window.get(at++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        long bodyStart = windowStart + at;
+        if (bodyStart + length > fileSize)
+            throw new EOFException("truncated game at offset " + offset);
+        cover(bodyStart, length);
+        offset = bodyStart + length;
+        parse((int) (bodyStart - windowStart));
+        return true;
+    }
+
+    /**
+     * Records where each field of the game starting at the given window
+     * position is, decoding only the small fixed fields.
+     **/
+    private void parse(int at) {
+        window.position(at);
+        flags = window.get();
+        winner = window.get();
+        loser = window.get();
+        for (int i = 0; i < nameAt.length; i++) {
+            nameAt[i] = window.position();
+            int length = readVarint();
+            window.position(window.position() + length);
+        }
+        for (int i = 0; i < timeLeft.length; i++) {
+            int zigzag = readVarint();
+            timeLeft[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        startAt = -1;
+        if ((flags & GameRecorder.FLAG_START_POSITION) != 0) {
+            startAt = window.position();
+            window.position(startAt + FastBoard.SQUARES + 1);
+        }
+        moveCount = readVarint();
+        movesAt = window.position();
+    }
+
+    private int readVarint() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = window.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    // ACCESSORS FOR THE CURRENT GAME
+
+    /**
+     * @return winning colour ordinal, or GameRecorder.NO_COLOUR
+     **/
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * @return losing colour ordinal, or GameRecorder.NO_COLOUR
+     **/
+    public int getLoser() {
+        return loser;
+    }
+
+    /**
+     * @return milliseconds left on a colour's clock at the end of the game
+     **/
+    public int getTimeLeft(int colour) {
+        return timeLeft[colour];
+    }
+
+    /**
+     * Decodes the name of the agent playing a colour. This allocates.
+     **/
+    public String getName(int colour) {
+        window.position(nameAt[colour]);
+        int length = readVarint();
+        byte[] bytes = new byte[length];
+        window.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * @return true if the game started from a recorded position rather than
+     *         the initial board
+     **/
+    public boolean hasStartPosition() {
+        return startAt >= 0;
+    }
+
+    /**
+     * Sets a board to the start position of the game, if one was recorded.
+     *
+     * @param board  the board to set
+     * @param pieces scratch array of FastBoard.SQUARES entries
+     **/
+    public void readStartPosition(FastBoard board, int[] pieces) {
+        for (int square = 0; square < FastBoard.SQUARES; square++)
+            pieces[square] = window.get(startAt + square);
+        board.setPosition(pieces, window.get(startAt + FastBoard.SQUARES));
+    }
+
+    /**
+     * Decodes the moves of the game.
+     *
+     * @param moves array of at least getMoveCount() entries to fill with packed
+     *              FastBoard moves
+     * @return the number of moves
+     **/
+    public int readMoves(int[] moves) {
+        window.position(movesAt);
+        for (int i = 0; i < moveCount; i++)
+            moves[i] = readVarint();
+        return moveCount;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
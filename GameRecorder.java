@@ -0,0 +1,286 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import threeChess.*;
+
+/**
+ * Writes games to a compact binary record file. Many games can be recorded
+ * concurrently without sharing a stream: each thread encodes games into its
+ * own staging buffer, and a full buffer is written with a single positional
+ * write into a region of the file reserved by an atomic add, so writers never
+ * wait for each other.
+ *
+ * File layout, all integers unsigned LEB128 varints unless noted:
+ *
+ * <pre>
+ * file    := "3CGR" version:byte game*
+ * game    := length body                  (length of body in bytes)
+ * body    := flags:byte winner:byte loser:byte
+ *            name name name               (blue, green, red)
+ *            time time time               (zigzag varint ms left at the end)
+ *            [pieces:byte[96] turn:byte]  (if flags bit 0, else initial board)
+ *            count move*                  (move = from << 7 | to, 14 bits)
+ * name    := length utf8-bytes
+ * </pre>
+ *
+ * Winner and loser are colour ordinals, or 3 when the game has none.
+ *
+ **/
+public class GameRecorder implements Closeable {
+
+    // FORMAT
+    public static final byte[] MAGIC = { '3', 'C', 'G', 'R' };
+    public static final int VERSION = 1;
+    public static final int FLAG_START_POSITION = 1;
+    public static final int NO_COLOUR = 3;
+
+    // FIELDS
+    private static final int STAGING_SIZE = 1 << 16;
+    private final FileChannel channel;
+    private final AtomicLong position;
+    private final AtomicLong games = new AtomicLong();
+    private final ConcurrentLinkedQueue<Staging> allStaging = new ConcurrentLinkedQueue<Staging>();
+    private final ThreadLocal<Staging> staging = ThreadLocal.withInitial(() -> {
+        Staging buffers = new Staging();
+        allStaging.add(buffers);
+        return buffers;
+    });
+
+    /**
+     * Per thread buffers: the body of the game being encoded, and the staged
+     * games waiting to be written.
+     **/
+    private static class Staging {
+        ByteBuffer body = ByteBuffer.allocate(STAGING_SIZE);
+        final ByteBuffer out = ByteBuffer.allocateDirect(STAGING_SIZE);
+    }
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a record file, or appends to it if it already exists.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be opened
+     **/
+    public GameRecorder(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ);
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+            header.put(MAGIC).put((byte) VERSION).flip();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            size = MAGIC.length + 1;
+        }
+        position = new AtomicLong(size);
+    }
+
+    // RECORDING
+
+    /**
+     * Records a finished game from its final board, using the board history
+     * for the moves.
+     *
+     * @param board the final board
+     * @param names agent names by colour ordinal
+     **/
+    public void record(Board board, String[] names) {
+        record(board, names, board.getWinner(), board.getLoser());
+    }
+
+    /**
+     * Records a finished game from its final board with a given result, for
+     * games decided other than on the board, such as by a forfeit.
+     *
+     * @param board  the final board
+     * @param names  agent names by colour ordinal
+     * @param winner the winning colour, or null for none
+     * @param loser  the losing colour, or null for none
+     **/
+    public void record(Board board, String[] names, Colour winner, Colour loser) {
+        int count = board.getMoveCount();
+        int[] moves = new int[count];
+        for (int i = 0; i < count; i++) {
+            Position[] move = board.getMove(i);
+            moves[i] = FastBoard.fromPositions(move[0], move[1]);
+        }
+        int[] timeLeft = new int[FastBoard.COLOURS.length];
+        for (Colour colour : FastBoard.COLOURS)
+            timeLeft[colour.ordinal()] = board.getTimeLeft(colour);
+        record(names, winner == null ? NO_COLOUR : winner.ordinal(), loser == null ? NO_COLOUR : loser.ordinal(),
+                timeLeft, null, moves, count);
+    }
+
+    /**
+     * Records a game.
+     *
+     * @param names    agent names by colour ordinal
+     * @param winner   winning colour ordinal, or NO_COLOUR
+     * @param loser    losing colour ordinal, or NO_COLOUR
+     * @param timeLeft milliseconds left on each clock at the end
+     * @param start    the start position, or null for the initial board
+     * @param moves    packed FastBoard moves
+     * @param count    number of moves
+     **/
+    public void record(String[] names, int winner, int loser, int[] timeLeft, FastBoard start, int[] moves,
+            int count) {
+        Staging buffers = staging.get();
+        synchronized (buffers) {
+            ByteBuffer body = encode(buffers, names, winner, loser, timeLeft, start, moves, count);
+            int size = body.remaining() + 5;
+            if (buffers.out.remaining() < size)
+                flush(buffers);
+            if (buffers.out.remaining() < size) {
+                // larger than the staging buffer, write it on its own
+                ByteBuffer single = ByteBuffer.allocate(size);
+                putVarint(single, body.remaining());
+                single.put(body).flip();
+                write(single);
+            } else {
+                putVarint(buffers.out, body.remaining());
+                buffers.out.put(body);
+            }
+        }
+        games.incrementAndGet();
+    }
+
+    private static ByteBuffer encode(Staging buffers, String[] names, int winner, int loser, int[] timeLeft,
+            FastBoard start, int[] moves, int count) {
+        byte[][] nameBytes = new byte[names.length][];
+        int needed = 3 + 15 + 98 + 5 + 3 * count;
+        for (int i = 0; i < names.length; i++) {
+            nameBytes[i] = (names[i] == null ? "" : names[i]).getBytes(StandardCharsets.UTF_8);
+            needed += 5 + nameBytes[i].length;
+        }
+        if (buffers.body.capacity() < needed)
+            buffers.body = ByteBuffer.allocate(Math.max(needed, 2 * buffers.body.capacity()));
+        ByteBuffer body = buffers.body;
+        body.clear();
+        body.put((byte) (start == null ? 0 : FLAG_START_POSITION));
+        body.put((byte) winner).put((byte) loser);
+        for (byte[] name : nameBytes) {
+            putVarint(body, name.length);
+            body.put(name);
+        }
+        for (int i = 0; i < FastBoard.COLOURS.length; i++)
+            putVarint(body, (timeLeft[i] << 1) ^ (timeLeft[i] >> 31));
+        if (start != null) {
+            for (int square = 0; square < FastBoard.SQUARES; square++)
+                body.put((byte) start.getPiece(square));
+            body.put((byte) start.getTurn());
+        }
+        putVarint(body, count);
+        for (int i = 0; i < count; i++)
+            putVarint(body, moves[i]);
+        body.flip();
+        return body;
+    }
+
+    /**
+     * Writes the calling thread's staged games to the file.
+     **/
+    public void flush() {
+        Staging buffers = staging.get();
+        synchronized (buffers) {
+            flush(buffers);
+        }
+    }
+
+    private void flush(Staging buffers) {
+        buffers.out.flip();
+        if (buffers.out.hasRemaining())
+            write(buffers.out);
+        buffers.out.clear();
+    }
+
+    /**
+     * Reserves space at the end of the file and writes the buffer there.
+     **/
+    private void write(ByteBuffer buffer) {
+        long at = position.getAndAdd(buffer.remaining());
+        try {
+            while (buffer.hasRemaining())
+                at += channel.write(buffer, at);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of games recorded so far
+     **/
+    public long getGameCount() {
+        return games.get();
+    }
+
+    /**
+     * Flushes every thread's staged games and closes the file. Call only after
+     * all recording threads have finished.
+     **/
+    public void close() throws IOException {
+        for (Staging buffers : allStaging)
+            synchronized (buffers) {
+                flush(buffers);
+            }
+        channel.close();
+    }
+
+    // ENCODING
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // SESSIONS
+
+    /**
+     * Collects one game played by three RecordingAgents, so that it is
+     * recorded once, by the last agent to see the final board.
+     **/
+    public static class Session {
+        private final String[] names;
+        private final AtomicInteger finished = new AtomicInteger();
+        private volatile Colour winner;
+        private volatile Colour loser;
+
+        /**
+         * @param names agent names by colour ordinal
+         **/
+        public Session(String[] names) {
+            this.names = names.clone();
+        }
+
+        /**
+         * Sets the result to record in place of the final board's, for a game
+         * decided other than by taking a king.
+         *
+         * @param winner the winning colour, or null for none
+         * @param loser  the losing colour, or null for none
+         **/
+        public void setResult(Colour winner, Colour loser) {
+            this.winner = winner;
+            this.loser = loser;
+        }
+
+        void finish(GameRecorder recorder, Board finalBoard) {
+            if (finished.incrementAndGet() != names.length)
+                return;
+            if (loser != null)
+                recorder.record(finalBoard, names, winner, loser);
+            else
+                recorder.record(finalBoard, names);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package threeChess.agents;
 
 import threeChess.*;
-import java.util.Random;
 
 /**
  * An interface for AI bots to implement. They are simply given a Board object
@@ -16,7 +15,6 @@ import java.util.Random;
 public class GrudgeAgent extends Agent {
 
     private static final String name = "Grudge";
-    private static final Random random = new Random();
 
     /**
      * A no argument constructor, required for tournament management.
@@ -25,89 +23,41 @@ public class GrudgeAgent extends Agent {
     }
 
     /*
-     * Checks all possible moves of the player and selects the one with kills the
-     * highest ranking piece of the next player to take a turn or if none possible,
-     * a random move
+     * Selects the capture which takes the highest ranking piece of the next
+     * player to take a turn, else the highest ranking piece of the other
+     * opponent, else a random move. Captures are read from the board's attack
+     * tables.
      * 
      * @return an array of positions i.e. start and finish
      */
     public Position[] playMove(Board board) {
-        Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-        Position start = pieces[0];
-        Position end = pieces[0]; // dummy illegal move
-        Position bestStart = pieces[0];
-        Position bestEnd = pieces[0];
-        int bestUtility = 0;
-        Position bestBackUpStart = pieces[0];
-        Position bestBackUpEnd = pieces[0];
-        int bestBackUpUtility = 0;
-
-        // choose victim
-        Colour myColour = board.getTurn();
-        int myOrdinal = myColour.ordinal();
-        Colour[] colours = Colour.values();
-        Colour victimColour = colours[(myOrdinal + 1) % colours.length];
-
-        boolean kill = false;
-        int checkCount = 0;
-        int utility = 0;
-
-        // NEXT: update utility calculation so it factors in
-        // cost of moving into a position that isn't safe
-        // i.e. if in danger; utility = win - loss
-
-        // cycle through my pieces
-        for (int i = 0; i < pieces.length; i++) {
-
-            start = pieces[i]; // start represents current piece location
-            Piece mover = board.getPiece(start);
-            Direction[][] steps = mover.getType().getSteps();
-            int maxReps = board.getPiece(start).getType().getStepReps();
-
-            // for each piece play out each of their moves
-            for (int j = 0; j < steps.length; j++) {
-                utility = 0;
-                mover = board.getPiece(start);
-                Direction[] step = steps[j];
-                try {
-                    // iterate through allowed number of reps of move
-                    for (int m = 1; m <= maxReps; m++) {
-                        end = board.step(mover, step, end);
-                        // if a move that takes a piece is found
-                        if (board.getPiece(end) != null && board.isLegalMove(start, end)) {
-                            // check utility of piece taken
-                            if (board.getPiece(end).getValue() > bestUtility) {
-                                // check colour of piece taken for victimhood
-                                if (victimColour.equals(board.getPiece(end).getColour())) {
-                                    // store this best utility found
-                                    bestUtility = board.getPiece(end).getValue();
-                                    bestStart = start;
-                                    bestEnd = end;
-                                }
-                                // store backup kill if no victim piece can be taken
-                                else {
-                                    bestBackUpUtility = board.getPiece(end).getValue();
-                                    bestBackUpStart = start;
-                                    bestBackUpEnd = end;
-                                }
-                            }
-                            // break after the playable move is encountered
-                            break;
-                        }
-                    }
-                } catch (ImpossiblePositionException e) {
-                }
-            }
-        }
-
-        // return move with the highest utility
-        // or returns random move if no best found
-        if (bestUtility > 0)
-            return new Position[] { bestStart, bestEnd };
-        else if (bestBackUpUtility > 0)
-            return new Position[] { bestBackUpStart, bestBackUpEnd };
-        else
+        int move = chooseMove(new FastBoard(board), FastRandom.current(), new int[FastBoard.MAX_MOVES]);
+        if (move < 0)
+            return randomPlayMove(board);
+        Position[] chosen = FastBoard.toPositions(move);
+        // moves come from FastBoard tables, check with the game before committing
+        if (!board.isLegalMove(chosen[0], chosen[1]))
             return randomPlayMove(board);
+        return chosen;
+    }
+
+    /**
+     * The Grudge policy on a FastBoard, cheap enough for playouts: the most
+     * valuable capture from the victim, the next colour to move, else the most
+     * valuable capture from the other opponent, else a random move.
+     * 
+     * @param board  the position, with the colour to move choosing
+     * @param random the generator for random moves
+     * @param moves  scratch array of at least FastBoard.MAX_MOVES entries
+     * @return a packed move, or -1 if there is no legal move
+     */
+    public static int chooseMove(FastBoard board, FastRandom random, int[] moves) {
+        int victim = (board.getTurn() + 1) % Colour.values().length;
+        if (board.generateCapturesByValue(moves, victim) > 0)
+            return moves[0];
+        if (board.generateCapturesByValue(moves, -1) > 0)
+            return moves[0];
+        return board.randomMove(random, moves);
     }
 
     /**
@@ -130,6 +80,7 @@ public class GrudgeAgent extends Agent {
      * backup random move
      */
     public Position[] randomPlayMove(Board board) {
+        FastRandom random = FastRandom.current();
         Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
         Position start = pieces[0];
         Position end = pieces[0]; // dummy illegal move
@@ -150,7 +101,3 @@ public class GrudgeAgent extends Agent {
     }
 
 }
-
-class GrudgeAgent {
-
-}
@@ -0,0 +1,276 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import threeChess.*;
+
+/**
+ * A linear evaluation whose weights are fitted offline by EvaluationTrainer.
+ * Each colour is scored from its own point of view with the same weights:
+ *
+ * <pre>
+ * material   count of each piece type
+ * square     piece type x section (own, next, previous) x row x column
+ *            folded about the centre
+ * mobility   attacked squares, from the FastBoard attack map
+ * king       opponent attacks and own defenders on the king zone, and
+ *            whether the king is attacked
+ * tempo      whether the colour moves next or last
+ * </pre>
+ *
+ * A position's three scores are logits: the trainer fits softmax(scores) to
+ * the winner of recorded games. The material and square terms are linear in
+ * the pieces, so they are folded into one table of FastBoard piece-square
+ * values and summed incrementally by make and unmake; the remaining terms are
+ * read from the attack map. Evaluating a position therefore costs a few
+ * lookups.
+ *
+ * Weights are stored as a properties file with one key per feature, as
+ * written by the trainer. Missing keys are zero.
+ *
+ **/
+public class LinearEvaluator {
+
+    // FEATURE LAYOUT
+    static final int MATERIAL = 0;
+    static final int SQUARE = MATERIAL + FastBoard.TYPES.length;
+    static final int MOBILITY = SQUARE + FastBoard.TYPES.length * 3 * 4 * 4;
+    static final int KING_ATTACKERS = MOBILITY + 1;
+    static final int KING_DEFENDERS = KING_ATTACKERS + 1;
+    static final int KING_ATTACKED = KING_DEFENDERS + 1;
+    static final int TEMPO = KING_ATTACKED + 1;
+    static final int FEATURES = TEMPO + 2;
+    // features per colour: at most one material and one square feature per
+    // piece, and the scalar terms
+    static final int MAX_ACTIVE = 2 * 16 * FastBoard.COLOURS.length + 5;
+
+    // scalar features are scaled into a range similar to piece counts
+    static final double MOBILITY_SCALE = 0.05;
+    static final double KING_SCALE = 0.25;
+
+    // logits are multiplied by SCALE and rounded for the integer tables
+    public static final int SCALE = 1000;
+
+    private static final String[] SECTIONS = { "own", "next", "previous" };
+    private static final String[] SCALARS = { "mobility", "king.attackers", "king.defenders", "king.attacked",
+            "tempo.next", "tempo.previous" };
+    private static final int[][] SQUARE_FEATURE = new int[FastBoard.COLOURS.length * FastBoard.TYPES.length
+            + 1][FastBoard.SQUARES];
+
+    static {
+        for (int colour = 0; colour < FastBoard.COLOURS.length; colour++)
+            for (int type = 0; type < FastBoard.TYPES.length; type++)
+                for (int square = 0; square < FastBoard.SQUARES; square++) {
+                    Position position = FastBoard.POSITIONS[square];
+                    int section = (position.getColour().ordinal() - colour + 3) % 3;
+                    int row = Math.min(3, position.getRow());
+                    int column = Math.min(7, position.getColumn());
+                    int fold = Math.min(column, 7 - column);
+                    SQUARE_FEATURE[FastBoard.piece(colour, type)][square] = SQUARE
+                            + ((type * 3 + section) * 4 + row) * 4 + fold;
+                }
+    }
+
+    private static LinearEvaluator defaultEvaluator;
+    private static boolean defaultLoaded = false;
+
+    // FIELDS
+    private final double[] weights;
+    private final int[][] table = new int[FastBoard.COLOURS.length * FastBoard.TYPES.length + 1][FastBoard.SQUARES];
+
+    // CONSTRUCTORS
+
+    /**
+     * @param weights one weight per feature, FEATURES entries
+     **/
+    public LinearEvaluator(double[] weights) {
+        this.weights = Arrays.copyOf(weights, FEATURES);
+        for (int colour = 0; colour < FastBoard.COLOURS.length; colour++)
+            for (int type = 0; type < FastBoard.TYPES.length; type++) {
+                int piece = FastBoard.piece(colour, type);
+                for (int square = 0; square < FastBoard.SQUARES; square++)
+                    table[piece][square] = (int) Math.round(
+                            SCALE * (this.weights[MATERIAL + type] + this.weights[SQUARE_FEATURE[piece][square]]));
+            }
+    }
+
+    /**
+     * Reads weights from a file written by store.
+     *
+     * @param path the weights file
+     * @return the evaluator
+     * @throws IOException if the file cannot be read
+     **/
+    public static LinearEvaluator load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(path)) {
+            properties.load(in);
+        }
+        double[] weights = new double[FEATURES];
+        for (int feature = 0; feature < FEATURES; feature++)
+            weights[feature] = Double.parseDouble(properties.getProperty(featureName(feature), "0"));
+        return new LinearEvaluator(weights);
+    }
+
+    /**
+     * The evaluator named by the system property threeChess.weights, or
+     * weights.properties in the working directory if it exists. Loaded once.
+     *
+     * @return the shared evaluator, or null if there are no weights
+     **/
+    public static synchronized LinearEvaluator getDefault() {
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            Path path = Paths.get(System.getProperty("threeChess.weights", "weights.properties"));
+            if (Files.exists(path)) {
+                try {
+                    defaultEvaluator = load(path);
+                } catch (IOException | NumberFormatException e) {
+                    System.out.println("Could not load weights " + path + ": " + e);
+                }
+            }
+        }
+        return defaultEvaluator;
+    }
+
+    /**
+     * Writes weights as a properties file.
+     *
+     * @param weights one weight per feature
+     * @param path    the file to write
+     * @param comment header comment
+     * @throws IOException if the file cannot be written
+     **/
+    public static void store(double[] weights, Path path, String comment) throws IOException {
+        Properties properties = new Properties();
+        for (int feature = 0; feature < FEATURES; feature++)
+            properties.setProperty(featureName(feature), Double.toString(weights[feature]));
+        try (Writer out = Files.newBufferedWriter(path)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * @return the key of a feature in a weights file
+     **/
+    static String featureName(int feature) {
+        if (feature < SQUARE)
+            return "material." + FastBoard.TYPES[feature - MATERIAL];
+        if (feature < MOBILITY) {
+            int index = feature - SQUARE;
+            int fold = index % 4;
+            int row = index / 4 % 4;
+            int section = index / 16 % 3;
+            int type = index / 48;
+            return "square." + FastBoard.TYPES[type] + "." + SECTIONS[section] + ".r" + row + ".c" + fold;
+        }
+        return SCALARS[feature - MOBILITY];
+    }
+
+    // FEATURES
+
+    /**
+     * Lists the active features of a colour in a position, as sparse index and
+     * value pairs. Used for training; the evaluator itself reads the same
+     * terms incrementally.
+     *
+     * @param board  the position
+     * @param colour the colour to describe
+     * @param index  array of MAX_ACTIVE entries for feature indices
+     * @param value  array of MAX_ACTIVE entries for feature values
+     * @return the number of active features
+     **/
+    static int features(FastBoard board, int colour, int[] index, double[] value) {
+        int count = 0;
+        for (int square = 0; square < FastBoard.SQUARES; square++) {
+            int piece = board.getPiece(square);
+            if (piece == FastBoard.EMPTY || FastBoard.colourOf(piece) != colour)
+                continue;
+            index[count] = MATERIAL + FastBoard.typeOf(piece);
+            value[count++] = 1;
+            index[count] = SQUARE_FEATURE[piece][square];
+            value[count++] = 1;
+        }
+        index[count] = MOBILITY;
+        value[count++] = MOBILITY_SCALE * board.mobility(colour);
+        index[count] = KING_ATTACKERS;
+        value[count++] = KING_SCALE * board.kingZoneAttacks(colour, true);
+        index[count] = KING_DEFENDERS;
+        value[count++] = KING_SCALE * board.kingZoneAttacks(colour, false);
+        if (board.kingAttacked(colour)) {
+            index[count] = KING_ATTACKED;
+            value[count++] = 1;
+        }
+        int tempo = (colour - board.getTurn() + 3) % 3;
+        if (tempo > 0) {
+            index[count] = TEMPO + tempo - 1;
+            value[count++] = 1;
+        }
+        return count;
+    }
+
+    // EVALUATION
+
+    /**
+     * @return the folded material and square table, to install with
+     *         FastBoard.setSquareTable before evaluating
+     **/
+    public int[][] getSquareTable() {
+        return table;
+    }
+
+    /**
+     * The logit of a colour, times SCALE. The board must be using this
+     * evaluator's square table.
+     **/
+    public int score(FastBoard board, int colour) {
+        double scalar = weights[MOBILITY] * MOBILITY_SCALE * board.mobility(colour)
+                + weights[KING_ATTACKERS] * KING_SCALE * board.kingZoneAttacks(colour, true)
+                + weights[KING_DEFENDERS] * KING_SCALE * board.kingZoneAttacks(colour, false)
+                + (board.kingAttacked(colour) ? weights[KING_ATTACKED] : 0);
+        int tempo = (colour - board.getTurn() + 3) % 3;
+        if (tempo > 0)
+            scalar += weights[TEMPO + tempo - 1];
+        return board.pieceSquareScore(colour) + (int) Math.round(SCALE * scalar);
+    }
+
+    /**
+     * Utility for MaxN: each colour's logit against the other two, so that
+     * maximising one's own entry also favours hurting the opponents.
+     *
+     * @param board   the position, using this evaluator's square table
+     * @param utility array of three entries to fill
+     **/
+    public void evaluate(FastBoard board, int[] utility) {
+        int total = 0;
+        for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+            utility[c] = score(board, c);
+            total += utility[c];
+        }
+        for (int c = 0; c < FastBoard.COLOURS.length; c++)
+            utility[c] = 3 * utility[c] - total;
+    }
+
+    /**
+     * Predicted probability of each colour winning, for scoring playouts that
+     * are cut off before the end of the game.
+     *
+     * @param board       the position, using this evaluator's square table
+     * @param probability array of three entries to fill
+     **/
+    public void winProbabilities(FastBoard board, double[] probability) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+            probability[c] = (double) score(board, c) / SCALE;
+            max = Math.max(max, probability[c]);
+        }
+        double total = 0;
+        for (int c = 0; c < FastBoard.COLOURS.length; c++) {
+            probability[c] = Math.exp(probability[c] - max);
+            total += probability[c];
+        }
+        for (int c = 0; c < FastBoard.COLOURS.length; c++)
+            probability[c] /= total;
+    }
+}
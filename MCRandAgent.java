@@ -1,8 +1,7 @@
 package threeChess.agents;
 
-import java.io.*;
-import java.text.BreakIterator;
 import java.util.*;
+import java.util.concurrent.*;
 import threeChess.*;
 
 /**
@@ -14,13 +13,26 @@ import threeChess.*;
 public class MCRandAgent extends Agent{
   
     private static final String name = "MCRand";
-    private static final Random random = new Random();
+    private double rate = 0.05;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService pool;
+    private static final int PLAYOUT_LIMIT = 1000;
 
     /**
      * A no argument constructor, 
      * required for tournament management.
      * **/
     public MCRandAgent(){
+        this(AgentParameters.getDefault());
+    }
+
+    /**
+     * Constructor for loading tuned variables
+     * @param params parameter set, missing keys keep their built in values
+     * **/
+    public MCRandAgent(AgentParameters params){
+        rate = params.getDouble("MCRandAgent.rate", rate);
+        threads = Math.max(1, params.getInt("MCRandAgent.threads", threads));
     }
 
     /**
@@ -32,9 +44,16 @@ public class MCRandAgent extends Agent{
      * Displays the final board position to the agent, 
      * if required for learning purposes. 
      * Other a default implementation may be given.
+     * The worker threads are stopped, as tournaments make a new agent
+     * per game.
      * @param finalBoard the end position of the board
      * **/
-    public void finalBoard(Board finalBoard){}
+    public synchronized void finalBoard(Board finalBoard){
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
 
     /**
      * plays a random move
@@ -42,6 +61,7 @@ public class MCRandAgent extends Agent{
      * @return
      */
     public static Position[] playRand(Board board){
+        FastRandom random = FastRandom.current();
         Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
         Position start = pieces[0];
         Position end = pieces[0]; //dummy illegal move
@@ -94,133 +114,121 @@ public class MCRandAgent extends Agent{
     }
 
     /**
-     * class to store nextMovestats
-     * try to store a node in the hashmap to fix the null problem
-     * 
-     * presently this isnt working with the test class
-     */
-    public class MoveStats extends MCRandAgent{
-
-        int moveCode;
-        Position start;
-        Position end;
-        int gamesPlayed = 0;
-        int gamesWon = 0;
-        double utility = 0;
-
-        public void updateUtility(){
-            this.utility = gamesPlayed/gamesWon;
-        }
-
-        public MoveStats(){
-        }
-
-        public MoveStats(int moveCode){
-            this.moveCode = moveCode;
-            Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-            this.start = pieces[0];
-            this.end = pieces[0];
-        }
-
-    }
-
-
-    /**
-     * Play a move in the game using a Monte Carlo Tree Search. 
-     * The agent is given a Board Object representing the position of all pieces, 
-     * the history of the game and whose turn it is. 
-     * They respond with a move represented by a pair (two element array) of positions: 
-     * the start and the end position of the move.
+     * Play a move in the game using flat Monte Carlo search.
+     * Every legal move is played out at random in turn, on all worker
+     * threads, until the share of the clock given by rate is used; each
+     * worker keeps its own games played and score per move in primitive
+     * arrays, merged when time is up. A playout scores 1 for a win, -1 for
+     * a loss and 0 if it ends without us, and the move with the best mean
+     * score is played.
      * @param board The representation of the game state.
      * @return a two element array of Position objects, where the first element is the 
      * current position of the piece to be moved, and the second element is the 
      * position to move that piece to.
-     * 
-     * This agent performs a Monte Carlo Tree Search informed by random moves
-     * Start with one random playout per piece... see how it goes
-     * 
      * **/
     public Position[] playMove(Board board){
-
-        // a calculation can be done to adjust time left
-        int timeLeft = board.getTimeLeft(board.getTurn());
-
-        int simCount = 100;
-        HashMap<Integer, int[]> results = new HashMap<Integer, int[]>();
-        HashMap<Integer, Position[]> moves = new HashMap<Integer, Position[]>();
-        Position[] firstMove = new Position[2];
-        Position[] move = new Position[2];
-
-        // main loop for simulating move playouts
-        for (int i = 0; i<simCount; i++) {
-
-            // clone board and store agents colour
-            Board boardClone = new Board(300);
-            try { 
-                boardClone = (Board) board.clone();
-            }catch(CloneNotSupportedException e){}
-            Colour myColour = boardClone.getTurn();
-
-            // select and store first move
-            firstMove = playRand(boardClone);
-            try{ boardClone.move(firstMove[0], firstMove[1], 1); }
-            catch(ImpossiblePositionException e){System.out.println(e);}
-
-            // play out the rest of the game with random moves
-            while(!boardClone.gameOver()) {
-                move = playRand(boardClone);
-                try{ boardClone.move(move[0], move[1], 1); }
-                catch(ImpossiblePositionException e){System.out.println(e);}
-            }
-            //store outcome of this game
-            int[] outcome = {0,0,0};
-            outcome[boardClone.getWinner().ordinal()] = 1;
-            outcome[boardClone.getLoser().ordinal()] = -1;
-
-            // convert move to hashable Integer
-            Integer thisMoveAsInt = movToInt(firstMove);
-
-            // add firstmove and outcome to results hashmap
-            // if this move has been played before
-            if (results.containsKey(thisMoveAsInt)){
-                //contains++;
-                int[] tempResultStats = (results.get(thisMoveAsInt));
-                tempResultStats[0] += outcome[myColour.ordinal()];  // update my games won
-                tempResultStats[1] += 1;                            // update my games played
-                // store in hashmaps
-                results.put(thisMoveAsInt, tempResultStats);
-                moves.put(thisMoveAsInt, firstMove);
-            } 
-            // if this move has NOT been played before
-            else if (!results.containsKey(thisMoveAsInt)) {
-                //notContains++;
-                int[] newResultStats = {0, 0};
-                newResultStats[0] += outcome[myColour.ordinal()];   // update my games won
-                newResultStats[1] += 1;                             // update my games played
-                // store in hashmaps
-                results.put(thisMoveAsInt, newResultStats);
-                moves.put(thisMoveAsInt, firstMove);
+        long deadline = System.nanoTime() + (long) (board.getTimeLeft(board.getTurn()) * rate * 1000000);
+        FastBoard root = new FastBoard(board);
+        int[] rootMoves = new int[FastBoard.MAX_MOVES];
+        int count = root.generateMoves(rootMoves);
+        if (count == 0)
+            return playRand(board);
+
+        // each worker starts at its own move, so the moves are covered evenly
+        List<Future<Stats>> futures = new ArrayList<Future<Stats>>();
+        for (int i = 0; i < threads; i++) {
+            int first = i * count / threads;
+            futures.add(pool().submit(() -> simulate(root, rootMoves, count, first, deadline)));
+        }
+        int[] played = new int[count];
+        double[] score = new double[count];
+        for (Future<Stats> future : futures) {
+            try {
+                Stats stats = future.get();
+                for (int m = 0; m < count; m++) {
+                    played[m] += stats.played[m];
+                    score[m] += stats.score[m];
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println(e);
             }
-            // neither! shouldn't reach this
-            else {System.out.print("ERROR");}
         }
 
         // search results for best move
-        int bestMove = -1000;
-        double bestAverage = -1000;
-        for (int i : results.keySet()) {
-            int[] temp = new int[2];
-            temp = results.get(i).clone();
-            if (bestAverage <= (temp[0]/temp[1])){ 
-                bestAverage = (temp[0]/temp[1]);
-                bestMove = i;
+        int bestMove = 0;
+        double bestAverage = Double.NEGATIVE_INFINITY;
+        for (int m = 0; m < count; m++) {
+            if (played[m] > 0 && score[m] / played[m] > bestAverage) {
+                bestAverage = score[m] / played[m];
+                bestMove = m;
             }
         }
-    
-        return new Position[] {moves.get(bestMove)[0],moves.get(bestMove)[1]};
-    
+        Position[] chosen = FastBoard.toPositions(rootMoves[bestMove]);
+        // moves come from FastBoard tables, check with the game before committing
+        if (!board.isLegalMove(chosen[0], chosen[1]))
+            chosen = playRand(board);
+        return chosen;
     }
 
-}
+    /**
+     * The playouts of one worker: cycles through the root moves from the
+     * given one, playing each out at random, until the deadline. At least one
+     * playout is made so a short clock still gives a result.
+     * @return games played and total score per root move
+     */
+    private static Stats simulate(FastBoard root, int[] rootMoves, int count, int first, long deadline){
+        FastRandom random = FastRandom.current();
+        FastBoard sim = new FastBoard();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        Stats stats = new Stats(count);
+        int me = root.getTurn();
+        int m = first;
+        do {
+            sim.copyFrom(root);
+            sim.make(rootMoves[m]);
+            for (int ply = 1; !sim.gameOver() && ply < PLAYOUT_LIMIT; ply++) {
+                int move = sim.randomMove(random, moves);
+                if (move < 0)
+                    break;
+                sim.make(move);
+            }
+            stats.played[m]++;
+            if (sim.gameOver() && sim.getWinner() == me)
+                stats.score[m] += 1;
+            else if (sim.gameOver() && sim.getLoser() == me)
+                stats.score[m] -= 1;
+            m = m + 1 == count ? 0 : m + 1;
+        } while (System.nanoTime() < deadline);
+        return stats;
+    }
 
+    /**
+     * The worker threads, started on first use and kept until the game
+     * ends (see finalBoard). They are daemons so an unfinished tournament
+     * can still exit.
+     */
+    private synchronized ExecutorService pool(){
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "mcrand");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
 
+    /**
+     * Games played and total score per root move, by index in the root
+     * move list, for one worker.
+     */
+    private static class Stats{
+        final int[] played;
+        final double[] score;
+
+        Stats(int count){
+            played = new int[count];
+            score = new double[count];
+        }
+    }
+}
@@ -14,15 +14,91 @@ public class MCTSAgent extends Agent {
     // FIELDS
     private String name = "MCTS";
     private double rate = 0.3;
+    private double lateRate = 0.1;
+    private int lateTimeLimit = 1000;
     // public static long startTime = 0;
     // public static long endTime = 0;
     private boolean grudgeMode = false;
-    private static final Random random = new Random();
+    private boolean ponder = false;
+    private final Ponderer ponderer = new Ponderer();
+    private final HashMap<Long, SearchStats> ponderStats = new HashMap<Long, SearchStats>();
+    private static final int PONDER_PREDICTIONS = 3;
+    private static final int PLAYOUT_LIMIT = 1000;
+    private static final int WARMUP_PLAYOUTS = 200;
+    private int rolloutDepth = 0;
+    private boolean rave = true;
+    private double raveBias = 0.05;
+    private double exploration = 0.3;
+    private boolean widening = true;
+    private int widenBase = 4;
+    private double widenFactor = 1.0;
+    private double widenExponent = 0.4;
+    private int treeNodes = 100000;
+    private boolean recycle = true;
+    private int expandThreshold = 2;
+    private boolean reportStats = false;
+    private int priorVisits = 8;
+    private long seed = 0;
+    // pondering and the table as they were before deterministic mode
+    private boolean normalPonder;
+    private TranspositionTable normalTable;
+    private int playoutLimit = 0;
+    private int warmupMillis = 1000;
+    private int lastPlayouts;
+    // the generator of the current move in deterministic mode, else null
+    private FastRandom random;
+    private MCTSTree tree;
+    private TranspositionTable table;
+    // key salt by the grudging colour in the canonical rotation, made on
+    // first use as grudge mode is set after construction
+    private long[] tableSalts;
+    private LinearEvaluator evaluator;
+    private GameRecorder playoutRecorder;
 
     /**
      * A no argument constructor, required for tournament management.
      **/
     public MCTSAgent() {
+        this(AgentParameters.getDefault());
+    }
+
+    /**
+     * Constructor for loading tuned variables
+     * 
+     * @param params parameter set, missing keys keep their built in values
+     */
+    public MCTSAgent(AgentParameters params) {
+        rate = params.getDouble("MCTSAgent.rate", rate);
+        lateRate = params.getDouble("MCTSAgent.lateRate", lateRate);
+        lateTimeLimit = params.getInt("MCTSAgent.lateTimeLimit", lateTimeLimit);
+        ponder = params.getInt("MCTSAgent.ponder", 0) != 0;
+        rolloutDepth = params.getInt("MCTSAgent.rolloutDepth", rolloutDepth);
+        rave = params.getInt("MCTSAgent.rave", 1) != 0;
+        raveBias = params.getDouble("MCTSAgent.raveBias", raveBias);
+        exploration = params.getDouble("MCTSAgent.exploration", exploration);
+        widening = params.getInt("MCTSAgent.widening", 1) != 0;
+        widenBase = params.getInt("MCTSAgent.widenBase", widenBase);
+        widenFactor = params.getDouble("MCTSAgent.widenFactor", widenFactor);
+        widenExponent = params.getDouble("MCTSAgent.widenExponent", widenExponent);
+        treeNodes = params.getInt("MCTSAgent.treeNodes", treeNodes);
+        recycle = params.getInt("MCTSAgent.recycle", 1) != 0;
+        expandThreshold = params.getInt("MCTSAgent.expandThreshold", expandThreshold);
+        reportStats = params.getInt("MCTSAgent.reportStats", 0) != 0;
+        if (params.getInt("MCTSAgent.transpositions", 1) != 0)
+            table = TranspositionTable.getShared();
+        priorVisits = params.getInt("MCTSAgent.priorVisits", priorVisits);
+        playoutLimit = params.getInt("MCTSAgent.playouts", playoutLimit);
+        setSeed(params.getInt("MCTSAgent.seed", 0));
+        warmupMillis = params.getInt("MCTSAgent.warmupMillis", warmupMillis);
+        Warmup.once("MCTS", warmupMillis, () -> {
+            AgentParameters warmup = params.copy();
+            warmup.set("MCTSAgent.warmupMillis", 0);
+            MCTSAgent agent = new MCTSAgent(warmup);
+            agent.setSeed(1);
+            agent.setPlayoutLimit(WARMUP_PLAYOUTS);
+            return agent;
+        });
+        evaluator = LinearEvaluator.getDefault();
     }
 
     /**
@@ -32,6 +108,7 @@ public class MCTSAgent extends Agent {
      * @param
      */
     public MCTSAgent(Double rate, boolean grudgeMode) {
+        this(AgentParameters.getDefault());
 
         if (grudgeMode == true) {
             this.grudgeMode = true;
@@ -53,25 +130,41 @@ public class MCTSAgent extends Agent {
      **/
     public Position[] playMove(Board board) {
 
+        // stop pondering before using the clock
+        ponderer.stop();
+
         // timing variables
         long timeLeft = board.getTimeLeft(board.getTurn());
         long timeA = System.currentTimeMillis();
         long timeB = System.currentTimeMillis();
 
-        HashMap<Integer, moveNode> moveNodesHashMap = new HashMap<Integer, moveNode>();
-        Position[] firstMove = new Position[2];
-        Position[] move = new Position[2];
-
-        //grudge variables setup
-        Colour myColour = board.getTurn();
-        int myOrdinal = myColour.ordinal();
-        Colour[] colours = Colour.values();
-        Colour victimColour = colours[(myOrdinal + 1) % colours.length];
-
         int bestMove = -1000;
         double bestAverage = 0.0;
         boolean keepSearching = true;
 
+        // reuse playouts pondered from this position, if it was predicted
+        SearchStats stats = ponderStats.get(Zobrist.hash(board));
+        ponderStats.clear();
+        if (stats == null)
+            stats = new SearchStats();
+        if (seed != 0) {
+            random = new FastRandom(seed ^ Zobrist.hash(board));
+            stats.random = random;
+        }
+        attachTree(stats);
+        HashMap<Integer, moveNode> moveNodesHashMap = stats.nodes;
+        for (Integer moveInt : moveNodesHashMap.keySet()) {
+            moveNode node = moveNodesHashMap.get(moveInt);
+            if (bestAverage < node.gamesWon / node.gamesPlayed) {
+                bestAverage = node.gamesWon / node.gamesPlayed;
+                bestMove = moveInt;
+            }
+        }
+
+        FastBoard root = searchBoard(board);
+        FastBoard sim = new FastBoard();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+
         while (keepSearching) {
 
 
@@ -79,100 +172,657 @@ public class MCTSAgent extends Agent {
             // if (board.getMoveCount() < 20) rate = 0.1;
 
             // late game policy
-            if (board.getTimeLeft(board.getTurn()) < 1000) rate = 0.1;
+            if (board.getTimeLeft(board.getTurn()) < lateTimeLimit) rate = lateRate;
 
-            // clone board
-            Board boardClone = new Board(300);
-            try {
-                boardClone = (Board) board.clone();
-            } catch (CloneNotSupportedException e) {
-                System.out.println(e);
-            }
+            Integer thisMoveAsInt = playout(root, sim, moves, stats);
+            if (thisMoveAsInt == null)
+                break;
 
-            //select and store first move
-            firstMove = playRandomMove(boardClone);
-            try {
-                boardClone.move(firstMove[0], firstMove[1]);
-            } catch (ImpossiblePositionException e) {
-                System.out.println(e);
+            // update if best move
+            int played = moveNodesHashMap.get(thisMoveAsInt).gamesPlayed;
+            double won = moveNodesHashMap.get(thisMoveAsInt).gamesWon;
+            if (bestAverage < won / played) {
+                bestAverage = won / played;
+                bestMove = thisMoveAsInt;
+                //System.out.println("BA:" + bestAverage);
             }
+            timeB = System.currentTimeMillis();
+            // search time policy, or playout count if one is set
+            if (playoutLimit > 0)
+                keepSearching = stats.playouts < playoutLimit;
+            else if ((timeLeft * rate) < (timeB - timeA))
+            keepSearching = false;
+        }
+        // System.out.println("bestAverage: " + bestAverage);
+        // System.out.println(moveNodesHashMap.get(bestMove).gamesWon + "/" +moveNodesHashMap.get(bestMove).gamesPlayed);
+
+        lastPlayouts = stats.playouts;
+        // no legal move found, let the game decide
+        if (moveNodesHashMap.isEmpty())
+            return playRandomMove(board);
+        // with UCT selection the best average can belong to a barely explored
+        // move, the most played move is the robust choice
+        if (selecting())
+            bestMove = mostPlayed(stats);
+        // no playout won, fall back to the first move tried
+        if (!moveNodesHashMap.containsKey(bestMove))
+            bestMove = moveNodesHashMap.keySet().iterator().next();
+        Position[] chosen = new Position[] { moveNodesHashMap.get(bestMove).start, moveNodesHashMap.get(bestMove).end };
+        // moves come from FastBoard tables, check with the game before committing
+        if (!board.isLegalMove(chosen[0], chosen[1]))
+            chosen = playRandomMove(board);
+        if (reportStats && stats.tree != null)
+            System.out.println(name + " " + stats.playouts + " playouts, " + stats.tree);
+        if (ponder)
+            startPondering(board, chosen);
+        return chosen;
+    }
+
+    /**
+     * Copies a board for playouts, installing the trained evaluator's square
+     * table if playouts will be cut off.
+     **/
+    FastBoard searchBoard(Board board) {
+        FastBoard root = new FastBoard(board);
+        if (cutoff())
+            root.setSquareTable(evaluator.getSquareTable());
+        return root;
+    }
+
+    private boolean cutoff() {
+        return evaluator != null && rolloutDepth > 0;
+    }
 
-            // play out the rest of the game with random moves
-            while (!boardClone.gameOver()) {
-                move = playRandomMove(boardClone);
-                try {
-                    boardClone.move(move[0], move[1]);
-                } catch (ImpossiblePositionException e) {
-                    System.out.println(e);
+    /**
+     * Gives the statistics of a new search the agent's tree, emptied. The tree
+     * is allocated at its full size on first use and kept for every later
+     * move, so memory does not grow with the time control.
+     **/
+    void attachTree(SearchStats stats) {
+        if (treeNodes <= 0 || stats.tree != null)
+            return;
+        if (table != null)
+            table.newSearch();
+        if (tree == null)
+            tree = new MCTSTree(treeNodes, recycle);
+        tree.clear();
+        stats.tree = tree;
+    }
+
+    /**
+     * Plays one random game from the board and adds its outcome to the
+     * statistics of the first move played. The game is played on a FastBoard
+     * so no Board is cloned. With trained weights and a rollout depth set, the
+     * playout stops after rolloutDepth moves and counts the evaluator's win
+     * probability as a fractional win.
+     *
+     * With RAVE on, the first move is chosen by UCT blended with the
+     * all-moves-as-first statistics, and the outcome is also credited to every
+     * move our colour played later in the playout.
+     *
+     * With a tree attached to the statistics, the playout then descends the
+     * tree below the first move, choosing by UCT, and adds one node once a
+     * leaf has been visited expandThreshold times; only the rest of the game
+     * is random. Each node on the path is credited with the result of the
+     * colour that played its move. Pondering searches have no tree.
+     *
+     * With the transposition table on, each tree node's results are also
+     * added to the table entry of its position, and a new node starts from
+     * the entry's results, scaled down to at most priorVisits playouts, so
+     * positions already played out by this search, another game or another
+     * thread are not explored from nothing.
+     * 
+     * @param root  the position to play out from, left unchanged
+     * @param sim   scratch board the playout is played on
+     * @param moves scratch move list of FastBoard.MAX_MOVES entries
+     * @param stats statistics of the root position to update
+     * @return the key of the first move played, or null if there is no legal
+     *         move or the playout was abandoned because pondering was stopped
+     */
+    private Integer playout(FastBoard root, FastBoard sim, int[] moves, SearchStats stats) {
+
+        FastRandom random = stats.random != null ? stats.random : FastRandom.current();
+
+        //grudge variables setup
+        int myOrdinal = root.getTurn();
+        int victimOrdinal = (myOrdinal + 1) % FastBoard.COLOURS.length;
+
+        sim.copyFrom(root);
+        int[] trail = stats.trail;
+        int ply = 1;
+
+        //select and store first move
+        int firstMove = selecting() ? selectFirstMove(root, stats, random) : sim.randomMove(random, moves);
+        if (firstMove < 0)
+            return null;
+        sim.make(firstMove);
+        trail[0] = firstMove;
+
+        // descend the tree below the first move
+        int limit = cutoff() ? Math.min(rolloutDepth, PLAYOUT_LIMIT) : PLAYOUT_LIMIT;
+        MCTSTree tree = stats.tree;
+        int[] path = stats.path;
+        int depth = 0;
+        if (tree != null) {
+            // recycle before the path is built, so no node on it is freed
+            tree.reserve();
+            int node = tree.child(MCTSTree.ROOT, firstMove, true);
+            while (node != MCTSTree.NONE) {
+                if (table != null) {
+                    stats.keys[depth] = tableKey(sim, myOrdinal);
+                    if (tree.getVisits(node) == 0)
+                        seedNode(tree, node, stats.keys[depth], stats.entry);
+                }
+                path[depth++] = node;
+                if (sim.gameOver() || ply >= limit || tree.getVisits(node) < expandThreshold)
+                    break;
+                node = selectChild(sim, tree, node, moves, stats.scores);
+                if (node != MCTSTree.NONE) {
+                    sim.make(tree.getMove(node));
+                    trail[ply++] = tree.getMove(node);
                 }
             }
+        }
+
+        // play out the rest of the game with random moves
+        for (; !sim.gameOver() && ply < limit; ply++) {
+            if (Ponderer.stopRequested())
+                return null;
+            int move = sim.randomMove(random, moves);
+            if (move < 0)
+                break;
+            sim.make(move);
+            trail[ply] = move;
+        }
+        if (playoutRecorder != null)
+            recordPlayout(root, sim, trail, ply);
 
-            // store outcome of this game
-            int[] outcome = { 0, 0, 0 };
+        // store outcome of this game
+        double[] outcome = { 0, 0, 0 };
+        // games cut off early are scored by the evaluator, in grudge mode only
+        // our own chance of winning counts
+        if (cutoff() && !sim.gameOver()) {
+            evaluator.winProbabilities(sim, outcome);
+        }
+        // games cut off or blocked have no winner
+        else if (sim.gameOver() && sim.getWinner() >= 0) {
             // if grudgemode is on
             if (grudgeMode == true) {
-                if (boardClone.getLoser() == victimColour && 
-                    boardClone.getWinner() == myColour) {
-                        outcome[myOrdinal] += 1;
+                if (sim.getLoser() == victimOrdinal && sim.getWinner() == myOrdinal) {
+                    outcome[myOrdinal] += 1;
                 }
-                // else if I am the loser to anyone
-                // else if (boardClone.getLoser() == myColour) {
-                //     outcome[boardClone.getLoser().ordinal()] += -1;
-                // }
             // else normalmode
-            } 
+            }
             else {
-                outcome[boardClone.getWinner().ordinal()] += 1;
-                //outcome[boardClone.getLoser().ordinal()] += -1;
+                outcome[sim.getWinner()] += 1;
             }
+        }
 
-            // convert move to Integer for use as HashMap key
-            Integer thisMoveAsInt = moveToInteger(firstMove);
-
-            // Add outcome to Hashmap
-            // if this move has been played before
-            if (moveNodesHashMap.containsKey(thisMoveAsInt)) {
-                moveNode tempNode = new moveNode();
-                tempNode.copy(moveNodesHashMap.get(thisMoveAsInt));
-                tempNode.gamesWon += outcome[myOrdinal];
-                tempNode.gamesPlayed += 1;
-                moveNodesHashMap.put(thisMoveAsInt, tempNode);
+        // credit every move we played, once each, as if it were played first
+        stats.visits[firstMove]++;
+        stats.wins[firstMove] += outcome[myOrdinal];
+        stats.playouts++;
+        for (int c = 0; c < outcome.length; c++)
+            stats.totals[c] += outcome[c];
+        // in grudge mode only our result is scored, so opponents' nodes are
+        // credited with our losses
+        for (int d = 0; d < depth; d++) {
+            int mover = (myOrdinal + d) % FastBoard.COLOURS.length;
+            double result = grudgeMode && mover != myOrdinal ? 1 - outcome[myOrdinal] : outcome[mover];
+            tree.update(path[d], result);
+            if (table != null)
+                creditTable(stats.keys[d], result, stats.entry);
+        }
+        if (rave) {
+            stats.stamp++;
+            for (int i = 0; i < ply; i += FastBoard.COLOURS.length) {
+                int move = trail[i];
+                if (stats.seen[move] == stats.stamp)
+                    continue;
+                stats.seen[move] = stats.stamp;
+                stats.amafVisits[move]++;
+                stats.amafWins[move] += outcome[myOrdinal];
             }
-            // if this move has NOT been played before
-            else if (!moveNodesHashMap.containsKey(thisMoveAsInt)) {
-                moveNode tempNode = new moveNode();
-                tempNode.start = firstMove[0];
-                tempNode.end = firstMove[1];
-                tempNode.gamesWon += outcome[myOrdinal];
-                tempNode.gamesPlayed += 1;
-                moveNodesHashMap.put(thisMoveAsInt, tempNode);
+        }
+
+        // convert move to Integer for use as HashMap key
+        Position[] firstPositions = FastBoard.toPositions(firstMove);
+        Integer thisMoveAsInt = moveToInteger(firstPositions);
+
+        // Add outcome to Hashmap
+        moveNode node = stats.nodes.get(thisMoveAsInt);
+        if (node == null) {
+            node = new moveNode();
+            node.start = firstPositions[0];
+            node.end = firstPositions[1];
+            stats.nodes.put(thisMoveAsInt, node);
+        }
+        node.gamesWon += outcome[myOrdinal];
+        node.gamesPlayed += 1;
+        return thisMoveAsInt;
+    }
+
+    /**
+     * @return the table key of a tree node's position. Results are those of
+     *         the colour that moved into the position whichever rotation it
+     *         is seen in, but in grudge mode they depend on the grudging
+     *         colour, which is salted as it appears in the canonical rotation.
+     */
+    private long tableKey(FastBoard position, int myOrdinal) {
+        long[] salts = tableSalts;
+        if (salts == null) {
+            salts = new long[Colour.values().length];
+            for (int c = 0; c < salts.length; c++)
+                salts[c] = TranspositionTable.salt("MCTS", grudgeMode ? c : -1, cutoff() ? rolloutDepth : 0);
+            tableSalts = salts;
+        }
+        int grudge = grudgeMode ? Symmetry.rotateColour(myOrdinal, Symmetry.canonicalRotation(position.getTurn())) : 0;
+        return Zobrist.canonicalHash(position) ^ salts[grudge];
+    }
+
+    /**
+     * Starts a new node from the table's results for its position. Table
+     * entries hold playouts in the first word and the summed results, as
+     * double bits, in the second.
+     */
+    private void seedNode(MCTSTree tree, int node, long key, TranspositionTable.Entry entry) {
+        if (priorVisits <= 0 || !table.probe(key, entry) || entry.getData0() <= 0)
+            return;
+        int visits = (int) Math.min(entry.getData0(), priorVisits);
+        tree.update(node, visits, Double.longBitsToDouble(entry.getData1()) * visits / entry.getData0());
+    }
+
+    /**
+     * Adds a playout result to the table entry of a node's position. Entries
+     * are read and written without locks, so a result may be lost to a
+     * concurrent update of the same position; entries with more playouts are
+     * kept in preference.
+     */
+    private void creditTable(long key, double result, TranspositionTable.Entry entry) {
+        long visits = 0;
+        double wins = 0;
+        if (table.probe(key, entry)) {
+            visits = entry.getData0();
+            wins = Double.longBitsToDouble(entry.getData1());
+        }
+        visits++;
+        table.store(key, (int) Math.min(visits, Integer.MAX_VALUE), visits, Double.doubleToRawLongBits(wins + result));
+    }
+
+    /**
+     * @return true if first moves are chosen by UCT rather than at random
+     */
+    private boolean selecting() {
+        return rave || widening;
+    }
+
+    /**
+     * Picks the root move to play out by UCT, with the mean of each move
+     * blended with its all-moves-as-first mean if RAVE is on. The AMAF weight
+     * beta falls as a move's own playouts grow (Gelly and Silver's minimum MSE
+     * schedule), so early choices lean on the many AMAF samples and later ones
+     * on the unbiased first move results. Unplayed moves go first, best AMAF
+     * first.
+     *
+     * With progressive widening only the first k root moves in heuristic order
+     * are candidates, k = widenBase + widenFactor * playouts^widenExponent, so
+     * a small budget is spent on plausible moves and the rest are unpruned as
+     * the search grows.
+     * 
+     * @param root  the root position
+     * @param stats statistics of the root position
+     * @return a packed move, or -1 if there is no legal move
+     */
+    private int selectFirstMove(FastBoard root, SearchStats stats, FastRandom random) {
+        if (stats.rootCount < 0) {
+            stats.rootCount = root.generateMoves(stats.rootMoves);
+            if (widening)
+                root.orderMoves(stats.rootMoves, stats.rootCount, new int[stats.rootCount]);
+        }
+        if (stats.rootCount == 0)
+            return -1;
+        int width = stats.rootCount;
+        if (widening)
+            width = (int) Math.min(width, widenBase + widenFactor * Math.pow(stats.playouts, widenExponent));
+        double logTotal = Math.log(stats.playouts + 1);
+        double bias = 4 * raveBias * raveBias;
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int offset = random.nextInt(width);
+        for (int k = 0; k < width; k++) {
+            int move = stats.rootMoves[(k + offset) % width];
+            int n = stats.visits[move];
+            int na = rave ? stats.amafVisits[move] : 0;
+            double amaf = na == 0 ? 0.5 : stats.amafWins[move] / na;
+            double value;
+            if (n == 0) {
+                value = Double.MAX_VALUE / 2 + amaf;
+            } else {
+                double beta = (double) na / (n + na + bias * n * na);
+                value = (1 - beta) * stats.wins[move] / n + beta * amaf
+                        + exploration * Math.sqrt(logTotal / n);
             }
-            // neither! shouldn't reach this
-            else {
-                System.out.print("ERROR");
+            if (value > bestValue) {
+                bestValue = value;
+                best = move;
             }
+        }
+        return best;
+    }
 
-            // update if best move
-            int played = moveNodesHashMap.get(thisMoveAsInt).gamesPlayed;
-            int won = moveNodesHashMap.get(thisMoveAsInt).gamesWon;
-            if (bestAverage < (double) ((double) won/(double) played)) {
-                bestAverage = (double) ((double) won/(double) played);
-                bestMove = thisMoveAsInt;
-                //System.out.println("BA:" + bestAverage);
+    /**
+     * Picks the move to follow from a tree node. While the node may have more
+     * children, the next untried move is added, in heuristic order with
+     * progressive widening (k grows with the node's visits as at the root) and
+     * in generation order otherwise; then children are chosen by UCT.
+     *
+     * @param sim  the position of the node
+     * @param tree the tree
+     * @param node the node
+     * @return the child to follow, or NONE if the node has no children or the
+     *         pool is full
+     */
+    private int selectChild(FastBoard sim, MCTSTree tree, int node, int[] moves, int[] scores) {
+        int visits = tree.getVisits(node);
+        int expanded = tree.getExpanded(node);
+        if (!tree.isExhausted(node)
+                && (!widening || expanded < widenBase + widenFactor * Math.pow(visits, widenExponent))) {
+            int count = sim.generateMoves(moves);
+            if (expanded + 1 >= count)
+                tree.setExhausted(node);
+            if (expanded < count) {
+                if (widening)
+                    sim.orderMoves(moves, count, scores);
+                return tree.addChild(node, moves[expanded]);
             }
-            timeB = System.currentTimeMillis();
-            // search time policy
-            if ((timeLeft * rate) < (timeB - timeA))
-            keepSearching = false;
         }
-        // System.out.println("bestAverage: " + bestAverage);
-        // System.out.println(moveNodesHashMap.get(bestMove).gamesWon + "/" +moveNodesHashMap.get(bestMove).gamesPlayed);
+        double logTotal = Math.log(visits + 1);
+        int best = MCTSTree.NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = tree.getFirstChild(node); child != MCTSTree.NONE; child = tree.getNextSibling(child)) {
+            int n = tree.getVisits(child);
+            double value = n == 0 ? Double.MAX_VALUE
+                    : tree.getWins(child) / n + exploration * Math.sqrt(logTotal / n);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the key of the root move with the most playouts
+     */
+    private static int mostPlayed(SearchStats stats) {
+        int best = -1000;
+        int bestPlayed = -1;
+        for (Integer moveInt : stats.nodes.keySet()) {
+            int played = stats.nodes.get(moveInt).gamesPlayed;
+            if (played > bestPlayed) {
+                bestPlayed = played;
+                best = moveInt;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs a fixed number of playouts, for measuring convergence.
+     * 
+     * @param root     the position to search
+     * @param stats    statistics to add to
+     * @param playouts number of playouts
+     * @return the packed move the search would play, or -1 if none
+     */
+    int search(FastBoard root, SearchStats stats, int playouts) {
+        attachTree(stats);
+        FastBoard sim = new FastBoard();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        for (int i = 0; i < playouts; i++)
+            if (playout(root, sim, moves, stats) == null)
+                break;
+        return bestMove(stats);
+    }
+
+    /**
+     * Runs playouts until a time, for callers that share out thinking time
+     * themselves and resume the search later with the same statistics. The
+     * statistics' tree, if any, is the caller's; none is attached. Playouts
+     * only read the agent's settings, so several threads may search with one
+     * agent as long as each has its own statistics.
+     * 
+     * @param root     the position to search
+     * @param stats    statistics to add to
+     * @param deadline System.nanoTime() to stop at
+     * @return false if there is no legal move
+     */
+    boolean searchUntil(FastBoard root, SearchStats stats, long deadline) {
+        FastBoard sim = new FastBoard();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        do {
+            if (playout(root, sim, moves, stats) == null)
+                return false;
+        } while (System.nanoTime() < deadline);
+        return true;
+    }
+
+    /**
+     * @param stats statistics of a search
+     * @return the packed move the search would play, or -1 if none
+     */
+    int bestMove(SearchStats stats) {
+        int bestMove = -1000;
+        if (selecting()) {
+            bestMove = mostPlayed(stats);
+        } else {
+            double bestAverage = -1;
+            for (Integer moveInt : stats.nodes.keySet()) {
+                moveNode node = stats.nodes.get(moveInt);
+                if (bestAverage < node.gamesWon / node.gamesPlayed) {
+                    bestAverage = node.gamesWon / node.gamesPlayed;
+                    bestMove = moveInt;
+                }
+            }
+        }
+        moveNode node = stats.nodes.get(bestMove);
+        return node == null ? -1 : FastBoard.fromPositions(node.start, node.end);
+    }
+
+    /**
+     * Turns deterministic mode on or off. With a seed, every playout of a
+     * move is drawn from one generator seeded by the seed and the position,
+     * and nothing outside the position changes the search: pondering and the
+     * shared transposition table are off. With a playout limit as well, the
+     * same position then gets the same tree, playout for playout, in every
+     * run, for comparing performance.
+     *
+     * @param seed the seed, or 0 for normal play, which turns pondering and
+     *             the table back to what they were before deterministic mode
+     */
+    public void setSeed(long seed) {
+        if (this.seed == 0 && seed != 0) {
+            normalPonder = ponder;
+            normalTable = table;
+        }
+        if (seed != 0) {
+            setPondering(false);
+            table = null;
+        } else if (this.seed != 0) {
+            table = normalTable;
+            setPondering(normalPonder);
+        }
+        this.seed = seed;
+        random = null;
+    }
 
-        return new Position[] { moveNodesHashMap.get(bestMove).start, moveNodesHashMap.get(bestMove).end };
+    /**
+     * Searches each move for a number of playouts rather than a share of the
+     * clock.
+     *
+     * @param playoutLimit playouts per move, or 0 to search by time
+     */
+    public void setPlayoutLimit(int playoutLimit) {
+        this.playoutLimit = playoutLimit;
+    }
+
+    /**
+     * @return playouts of the last move played, pondered ones included
+     */
+    public int getLastPlayouts() {
+        return lastPlayouts;
+    }
+
+    /**
+     * Turns RAVE selection on or off.
+     */
+    public void setRave(boolean rave) {
+        this.rave = rave;
+    }
+
+    /**
+     * Turns progressive widening of the root moves on or off.
+     */
+    public void setWidening(boolean widening) {
+        this.widening = widening;
+    }
+
+    /**
+     * @return the tree of the last search, for its node count, recycled count
+     *         and occupancy, or null if the agent searches the root only
+     */
+    public MCTSTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Records every playout from now on, for mining offline.
+     * 
+     * @param recorder the record file, or null to stop recording
+     */
+    public void setPlayoutRecorder(GameRecorder recorder) {
+        this.playoutRecorder = recorder;
+    }
+
+    private void recordPlayout(FastBoard root, FastBoard sim, int[] trail, int length) {
+        String[] names = { "random", "random", "random" };
+        names[root.getTurn()] = name + " playout";
+        int winner = sim.getWinner() < 0 ? GameRecorder.NO_COLOUR : sim.getWinner();
+        int loser = sim.getLoser() < 0 ? GameRecorder.NO_COLOUR : sim.getLoser();
+        playoutRecorder.record(names, winner, loser, new int[3], root, trail, length);
+    }
+
+    // PONDERING
+
+    /**
+     * Turns background search during opponents' turns on or off.
+     * 
+     * @param ponder true to ponder after each move
+     */
+    public void setPondering(boolean ponder) {
+        this.ponder = ponder;
+        if (!ponder)
+            ponderer.stop();
+    }
+
+    /**
+     * Starts playouts on a background thread from the positions the opponents'
+     * replies to our move are predicted to reach. Statistics are kept per
+     * predicted position and reused by playMove if the game arrives there.
+     * 
+     * @param board the position we moved from
+     * @param move  the move we are about to play
+     */
+    private void startPondering(Board board, Position[] move) {
+        Board afterMove;
+        try {
+            afterMove = (Board) board.clone();
+            afterMove.move(move[0], move[1]);
+        } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+            return;
+        }
+        if (afterMove.gameOver())
+            return;
+        ponderer.start(() -> {
+            List<Board> predicted = predictPositions(afterMove);
+            List<FastBoard> roots = new ArrayList<FastBoard>();
+            List<SearchStats> stats = new ArrayList<SearchStats>();
+            for (Board position : predicted) {
+                SearchStats positionStats = new SearchStats();
+                ponderStats.put(Zobrist.hash(position), positionStats);
+                roots.add(searchBoard(position));
+                stats.add(positionStats);
+            }
+            FastBoard sim = new FastBoard();
+            int[] moves = new int[FastBoard.MAX_MOVES];
+            // share the pondering time between predictions
+            for (int i = 0; !roots.isEmpty() && !Ponderer.stopRequested(); i = (i + 1) % roots.size())
+                playout(roots.get(i), sim, moves, stats.get(i));
+        });
+    }
+
+    /**
+     * Predicts the positions reached after both opponents reply. Each opponent
+     * is assumed to take its most valuable capture, or to play randomly if it
+     * has none, so several samples are drawn and duplicates discarded.
+     * 
+     * @param afterMove the position after our move
+     * @return distinct predicted positions with us to move
+     */
+    private List<Board> predictPositions(Board afterMove) {
+        List<Board> predicted = new ArrayList<Board>();
+        HashSet<Long> seen = new HashSet<Long>();
+        for (int sample = 0; sample < PONDER_PREDICTIONS && !Ponderer.stopRequested(); sample++) {
+            try {
+                Board position = (Board) afterMove.clone();
+                for (int reply = 0; reply < 2 && !position.gameOver(); reply++) {
+                    Position[] move = playBestMove(position);
+                    position.move(move[0], move[1]);
+                }
+                if (!position.gameOver() && seen.add(Zobrist.hash(position)))
+                    predicted.add(position);
+            } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+                System.out.println(e);
+            }
+        }
+        return predicted;
     }
 
     // SUPPLEMENTARY STRUCTURE
 
+    /**
+     * Statistics of one root position: the first move results by move key, as
+     * reported to playMove, and the same counts plus the all-moves-as-first
+     * counts in arrays indexed by packed FastBoard move for fast selection.
+     */
+    static class SearchStats {
+        final HashMap<Integer, moveNode> nodes = new HashMap<Integer, moveNode>();
+        final int[] visits = new int[1 << 14];
+        final double[] wins = new double[1 << 14];
+        final int[] amafVisits = new int[1 << 14];
+        final double[] amafWins = new double[1 << 14];
+        int playouts;
+        // summed outcome of every playout for each colour
+        final double[] totals = new double[3];
+        final int[] rootMoves = new int[FastBoard.MAX_MOVES];
+        int rootCount = -1;
+        // scratch for one playout: its moves, and the playout each move was
+        // last credited in so repeated moves count once
+        final int[] trail = new int[PLAYOUT_LIMIT];
+        final int[] seen = new int[1 << 14];
+        int stamp;
+        // the tree below the root moves, shared by the agent's searches, and
+        // scratch for the nodes of one playout and for ordering moves
+        MCTSTree tree;
+        final int[] path = new int[PLAYOUT_LIMIT];
+        final int[] scores = new int[FastBoard.MAX_MOVES];
+        // table keys of the nodes of one playout
+        final long[] keys = new long[PLAYOUT_LIMIT];
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        // the generator of a deterministic search, null to use the thread's
+        FastRandom random;
+    }
+
     /**
      * class to store data for hashmap values
      */
@@ -182,14 +832,14 @@ public class MCTSAgent extends Agent {
         Position start;
         Position end;
         int gamesPlayed;
-        int gamesWon;
+        double gamesWon;
 
         // CONSTRUCTOR
         public moveNode() {
-            Board board = new Board(300);
-            Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-            this.start = pieces[0];
-            this.end = pieces[0];
+            // placeholder until the playout sets the move, a Board is not
+            // built for it
+            this.start = FastBoard.POSITIONS[0];
+            this.end = FastBoard.POSITIONS[0];
             this.gamesPlayed = 0;
             this.gamesWon = 0;
         }
@@ -213,41 +863,12 @@ public class MCTSAgent extends Agent {
     public static HashMap<Integer, Position[]> getNextMoves(Board board) {
 
         HashMap<Integer, Position[]> nextMovesHashmap = new HashMap<Integer, Position[]>();
-        Position[] myPositions = board.getPositions(board.getTurn()).toArray(new Position[0]);
-        Position start = myPositions[0];
-        Position end = myPositions[0]; // dummy illegal move
-
-        // cycle through my pieces
-        for (int i = 0; i < myPositions.length; i++) {
-            start = myPositions[i]; // start represents current piece location
-            Piece mover = board.getPiece(start);
-            Direction[][] dirCount = mover.getType().getSteps();
-            int maxReps = board.getPiece(start).getType().getStepReps();
-            // iterate through the allowed directions
-            for (int dirIndex = 0; dirIndex < dirCount.length; dirIndex++) {
-                Direction[] step = dirCount[dirIndex];
-                // create cloneboard for move
-                Board boardClone = new Board(300);
-                try {
-                    boardClone = (Board) board.clone();
-                } catch (CloneNotSupportedException e) {
-                }
-                // iterate through allowed number of reps of move
-                for (int actions = 1; actions <= maxReps; actions++) {
-                    // try to make the number of steps
-                    try {
-                        end = boardClone.step(mover, step, start);
-                    } catch (ImpossiblePositionException e) {
-                    }
-                    Integer thisCode = moveToInteger(new Position[] { start, end });
-                    // if a unique move that takes a piece is found
-                    if (board.isLegalMove(start, end) && !nextMovesHashmap.containsKey(thisCode)
-                            && ((start.getRow() != end.getRow()) || (start.getColumn() != end.getColumn()))) {
-                        // store move in hashmap
-                        nextMovesHashmap.put(thisCode, new Position[] { start, end });
-                    }
-                }
-            }
+        // generate from the attack tables instead of testing every step
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        int count = new FastBoard(board).generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            Position[] move = FastBoard.toPositions(moves[i]);
+            nextMovesHashmap.put(moveToInteger(move), move);
         }
         return nextMovesHashmap;
     }
@@ -383,7 +1004,10 @@ public class MCTSAgent extends Agent {
      * @return a move to be played
      **/
     public Position[] playRandomMove(Board board) {
+        FastRandom random = this.random != null ? this.random : FastRandom.current();
         Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
+        // in set order the draws would depend on the run's hash codes
+        Arrays.sort(pieces);
         Position start = pieces[0];
         Position end = pieces[0]; // dummy illegal move
         while (!board.isLegalMove(start, end)) {
@@ -466,6 +1090,8 @@ public class MCTSAgent extends Agent {
      * @param finalBoard the end position of the board
      **/
     public void finalBoard(Board finalBoard) {
+        ponderer.stop();
+        ponderStats.clear();
     }
 
 }
@@ -0,0 +1,297 @@
+package threeChess.agents;
+
+import java.util.*;
+
+/**
+ * A fixed size pool of MCTS tree nodes, stored as parallel primitive arrays so
+ * that the tree costs a constant 30 bytes per node however long the agent
+ * thinks. Node 0 is the root; each other node holds the packed FastBoard move
+ * that reaches it, its parent, its first child and next sibling, and the
+ * visits and wins of the colour that played the move.
+ *
+ * When the pool is full, recycle() frees the least visited leaves, unlinking
+ * them from their parents so their slots can be reused; a pool created
+ * without recycling simply refuses to grow and the search continues with the
+ * tree it has.
+ *
+ **/
+public class MCTSTree {
+
+    // CONSTANTS
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+    private static final int HISTOGRAM = 256;
+
+    // FIELDS
+    private final int capacity;
+    private final boolean recycling;
+    private final int[] move;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] visits;
+    private final double[] wins;
+    private final short[] expanded;
+    private final boolean[] exhausted;
+    private final int[] histogram = new int[HISTOGRAM];
+
+    // free slots are chained through nextSibling
+    private int freeList;
+    private int size;
+
+    // metrics
+    private long created;
+    private long recycled;
+    private long refused;
+    private int sweeps;
+
+    /**
+     * @param capacity  maximum number of nodes, including the root
+     * @param recycling true to free the least visited leaves when full, false
+     *                  to stop expanding
+     **/
+    public MCTSTree(int capacity, boolean recycling) {
+        this.capacity = Math.max(2, capacity);
+        this.recycling = recycling;
+        move = new int[this.capacity];
+        parent = new int[this.capacity];
+        firstChild = new int[this.capacity];
+        nextSibling = new int[this.capacity];
+        visits = new int[this.capacity];
+        wins = new double[this.capacity];
+        expanded = new short[this.capacity];
+        exhausted = new boolean[this.capacity];
+        clear();
+    }
+
+    /**
+     * Empties the tree, leaving only the root, and resets the metrics.
+     **/
+    public void clear() {
+        for (int i = 1; i < capacity; i++) {
+            parent[i] = NONE;
+            nextSibling[i] = i + 1 < capacity ? i + 1 : NONE;
+        }
+        freeList = capacity > 1 ? 1 : NONE;
+        move[ROOT] = FastBoard.NULL_MOVE;
+        parent[ROOT] = NONE;
+        firstChild[ROOT] = NONE;
+        nextSibling[ROOT] = NONE;
+        visits[ROOT] = 0;
+        wins[ROOT] = 0;
+        expanded[ROOT] = 0;
+        exhausted[ROOT] = false;
+        size = 1;
+        created = 0;
+        recycled = 0;
+        refused = 0;
+        sweeps = 0;
+    }
+
+    // STRUCTURE
+
+    /**
+     * Finds the child of a node reached by a move.
+     *
+     * @param node   the parent
+     * @param m      packed move
+     * @param create true to add the child if it is missing
+     * @return the child, or NONE if it is missing and could not be added
+     **/
+    public int child(int node, int m, boolean create) {
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c])
+            if (move[c] == m)
+                return c;
+        return create ? addChild(node, m) : NONE;
+    }
+
+    /**
+     * Adds a child to a node and counts it as the node's next expansion.
+     *
+     * @return the new child, or NONE if the pool is full
+     **/
+    public int addChild(int node, int m) {
+        if (expanded[node] < Short.MAX_VALUE)
+            expanded[node]++;
+        if (freeList == NONE) {
+            refused++;
+            return NONE;
+        }
+        int c = freeList;
+        freeList = nextSibling[c];
+        move[c] = m;
+        parent[c] = node;
+        firstChild[c] = NONE;
+        nextSibling[c] = firstChild[node];
+        firstChild[node] = c;
+        visits[c] = 0;
+        wins[c] = 0;
+        expanded[c] = 0;
+        exhausted[c] = false;
+        size++;
+        created++;
+        return c;
+    }
+
+    /**
+     * Frees slots if fewer than a few are left and recycling is on. Call only
+     * between playouts, so that no node on a path in use is a candidate.
+     **/
+    public void reserve() {
+        if (recycling && capacity - size < 2)
+            recycle(Math.max(1, capacity / 8));
+    }
+
+    /**
+     * Frees about the given number of leaves, least visited first. Leaf visit
+     * counts are bucketed to find the threshold, so a sweep is one pass over
+     * the pool to count and one to free.
+     *
+     * @param target number of slots wanted
+     * @return the number of slots freed
+     **/
+    public int recycle(int target) {
+        sweeps++;
+        Arrays.fill(histogram, 0);
+        for (int i = 1; i < capacity; i++)
+            if (parent[i] != NONE && firstChild[i] == NONE)
+                histogram[Math.min(visits[i], HISTOGRAM - 1)]++;
+        int threshold = 0;
+        int candidates = histogram[0];
+        while (candidates < target && threshold < HISTOGRAM - 1)
+            candidates += histogram[++threshold];
+
+        int freed = 0;
+        for (int i = 1; i < capacity && freed < target; i++) {
+            if (parent[i] == NONE || firstChild[i] != NONE || Math.min(visits[i], HISTOGRAM - 1) > threshold)
+                continue;
+            unlink(i);
+            parent[i] = NONE;
+            nextSibling[i] = freeList;
+            freeList = i;
+            size--;
+            freed++;
+        }
+        recycled += freed;
+        return freed;
+    }
+
+    private void unlink(int node) {
+        int p = parent[node];
+        if (firstChild[p] == node) {
+            firstChild[p] = nextSibling[node];
+            return;
+        }
+        for (int c = firstChild[p]; c != NONE; c = nextSibling[c])
+            if (nextSibling[c] == node) {
+                nextSibling[c] = nextSibling[node];
+                return;
+            }
+    }
+
+    // STATISTICS
+
+    /**
+     * Adds a playout result to a node.
+     *
+     * @param node   the node
+     * @param result the result for the colour that played the node's move
+     **/
+    public void update(int node, double result) {
+        visits[node]++;
+        wins[node] += result;
+    }
+
+    /**
+     * Adds several playout results to a node at once, for starting it from
+     * results gathered elsewhere.
+     *
+     * @param node    the node
+     * @param visits  number of playouts
+     * @param results their summed results for the colour that played the
+     *                node's move
+     **/
+    public void update(int node, int visits, double results) {
+        this.visits[node] += visits;
+        wins[node] += results;
+    }
+
+    public int getMove(int node) {
+        return move[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    public int getVisits(int node) {
+        return visits[node];
+    }
+
+    public double getWins(int node) {
+        return wins[node];
+    }
+
+    /**
+     * @return the number of children ever added to a node, including any
+     *         refused or recycled since
+     **/
+    public int getExpanded(int node) {
+        return expanded[node];
+    }
+
+    /**
+     * @return true once every move of the node has been expanded
+     **/
+    public boolean isExhausted(int node) {
+        return exhausted[node];
+    }
+
+    public void setExhausted(int node) {
+        exhausted[node] = true;
+    }
+
+    // METRICS
+
+    /**
+     * @return the number of nodes in the tree, including the root
+     **/
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the fraction of the pool in use
+     **/
+    public double occupancy() {
+        return (double) size / capacity;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getRecycled() {
+        return recycled;
+    }
+
+    /**
+     * @return the number of expansions refused because the pool was full
+     **/
+    public long getRefused() {
+        return refused;
+    }
+
+    public String toString() {
+        return String.format("nodes %d/%d (%.1f%%), created %d, recycled %d in %d sweeps, refused %d", size,
+                capacity, 100 * occupancy(), created, recycled, sweeps, refused);
+    }
+}
@@ -1,6 +1,7 @@
 package threeChess.agents;
 
 import java.util.*;
+import java.util.concurrent.*;
 import threeChess.*;
 
 /**
@@ -10,18 +11,105 @@ import threeChess.*;
  **/
 public class MaxNAgent extends Agent {
 
-    private static String name = "MaxN";
+    private String name = "MaxN";
     private int moveLimit = 2;
+    // plies searched below each root move by the current search: moveLimit,
+    // or 1 in the late game
+    private int depthLimit = moveLimit;
     private Colour myColour;
     private boolean grudgeMode = false;
-    private static final Random random = new Random();
     private int earlyMoveLimit = 15;
     private int lateTimeLimit = 1000;
+    private boolean ponder = false;
+    private final Ponderer ponderer = new Ponderer();
+    private final HashMap<Long, HashMap<Integer, int[]>> ponderUtilities = new HashMap<Long, HashMap<Integer, int[]>>();
+    private static final int PONDER_PREDICTIONS = 3;
+    private static final int WIN_SCORE = 1000000;
+    private static final int WARMUP_NODES = 20000;
+    private LinearEvaluator evaluator;
+    private boolean quiescence = true;
+    private int quiescenceLimit = 6;
+    private int recaptureDepth = 2;
+    private int deltaMargin = 200;
+    private boolean reportStats = false;
+    private boolean batchEvaluation = true;
+    private TranspositionTable table;
+    private long seed = 0;
+    // pondering and the table as they were before deterministic mode
+    private boolean normalPonder;
+    private TranspositionTable normalTable;
+    private int nodeLimit = 0;
+    private int warmupMillis = 1000;
+    private OpponentModel opponentModel;
+    private double pruneMass = 0.1;
+    private int pruneObservations = 4;
+    // true while the search prunes the replies of a predicted opponent
+    private boolean pruning;
+    private int threads = 1;
+    private ForkJoinPool pool;
+    // System.nanoTime() by which a move's search must end, or 0 for none
+    private long deadline;
+    // set while an interrupted parallel search stops its root move tasks
+    private volatile boolean stopping;
+    private boolean cutShort;
+    // the generator of the current move in deterministic mode, else null
+    private FastRandom random;
+    // key salt of each canonical rotation, set per search
+    private final long[] tableSalts = new long[Symmetry.ROTATIONS];
+
+    // search statistics of the last move, main search and quiescence apart,
+    // gathered from the search stacks (see collect)
+    private long nodes;
+    private long quiescenceNodes;
+    private long quiescenceNanos;
+    private long searchNanos;
+    private long tableHits;
+    private long prunedMoves;
 
     /**
      * A no argument constructor, required for tournament management.
      **/
     public MaxNAgent() {
+        this(AgentParameters.getDefault());
+    }
+
+    /**
+     * Constructor for loading tuned variables
+     * 
+     * @param params parameter set, missing keys keep their built in values
+     **/
+    public MaxNAgent(AgentParameters params) {
+        moveLimit = params.getInt("MaxNAgent.moveLimit", moveLimit);
+        depthLimit = moveLimit;
+        earlyMoveLimit = params.getInt("MaxNAgent.earlyMoveLimit", earlyMoveLimit);
+        lateTimeLimit = params.getInt("MaxNAgent.lateTimeLimit", lateTimeLimit);
+        ponder = params.getInt("MaxNAgent.ponder", 0) != 0;
+        if (params.getInt("MaxNAgent.linearEvaluation", 1) != 0)
+            evaluator = LinearEvaluator.getDefault();
+        quiescence = params.getInt("MaxNAgent.quiescence", 1) != 0;
+        quiescenceLimit = params.getInt("MaxNAgent.quiescenceLimit", quiescenceLimit);
+        recaptureDepth = params.getInt("MaxNAgent.recaptureDepth", recaptureDepth);
+        deltaMargin = params.getInt("MaxNAgent.deltaMargin", deltaMargin);
+        reportStats = params.getInt("MaxNAgent.reportStats", 0) != 0;
+        batchEvaluation = params.getInt("MaxNAgent.batchEvaluation", 1) != 0;
+        if (params.getInt("MaxNAgent.transpositions", 1) != 0)
+            table = TranspositionTable.getShared();
+        nodeLimit = params.getInt("MaxNAgent.nodeLimit", nodeLimit);
+        if (params.getInt("MaxNAgent.opponentModel", 1) != 0)
+            opponentModel = new OpponentModel();
+        pruneMass = params.getDouble("MaxNAgent.pruneMass", pruneMass);
+        pruneObservations = params.getInt("MaxNAgent.pruneObservations", pruneObservations);
+        threads = Math.max(1, params.getInt("MaxNAgent.threads", threads));
+        setSeed(params.getInt("MaxNAgent.seed", 0));
+        warmupMillis = params.getInt("MaxNAgent.warmupMillis", warmupMillis);
+        Warmup.once("MaxN", warmupMillis, () -> {
+            AgentParameters warmup = params.copy();
+            warmup.set("MaxNAgent.warmupMillis", 0);
+            MaxNAgent agent = new MaxNAgent(warmup);
+            agent.setSeed(1);
+            agent.setNodeLimit(WARMUP_NODES);
+            return agent;
+        });
     }
 
     /**
@@ -30,6 +118,7 @@ public class MaxNAgent extends Agent {
      * @param grudgeMode true turns on one player focus
      **/
     public MaxNAgent(Integer earlyMoveLimit, boolean grudgeMode) {
+        this(AgentParameters.getDefault());
         if (grudgeMode == true) {
             this.grudgeMode = true;
             name += "G";
@@ -49,117 +138,828 @@ public class MaxNAgent extends Agent {
      **/
     public Position[] playMove(Board board) {
 
+        // stop pondering before using the clock
+        ponderer.stop();
+
         // early game strategy
         // if (board.getMoveCount() < earlyMoveLimit) {
         //     moveLimit = 1;
         //     //System.out.println("MaxN: early game strategy active");
         // }
 
-        // // late game strategy
-        if (board.getTimeLeft(board.getTurn()) < lateTimeLimit) {
-            moveLimit = 1;
+        // late game strategy for this move only, not in deterministic mode
+        // where the clock must not change the search
+        depthLimit = moveLimit;
+        if (seed == 0 && board.getTimeLeft(board.getTurn()) < lateTimeLimit) {
+            depthLimit = Math.min(1, moveLimit);
             //System.out.println("MaxN: late game strategy active");
         }
 
         // System.out.println((board.getMoveCount()) + "/" + earlyMoveLimit);
 
         int bestMoveInt = 0;
-        int[] initialUtility;
-        if (grudgeMode == true)
-            initialUtility = Arrays.copyOf(myGrudgeUtility(board), 3);
-        else
-            initialUtility = Arrays.copyOf(myPiecesUtility(board), 3);
-        int[] bestUtility = { -100, -100, -100 };
+        if (seed != 0)
+            random = new FastRandom(seed ^ Zobrist.hash(board));
         myColour = board.getTurn();
+        resetStats();
+        prepareModel(board);
+        prepareTable();
+        long searchStart = System.nanoTime();
+        FastBoard root = searchBoard(board);
+        SearchStack stack = newSearchStack();
+        int[] initialUtility = new int[3];
+        evaluate(root, initialUtility);
+        int[] bestUtility = null;
+
+        // reuse root evaluations pondered from this position, if it was predicted
+        HashMap<Integer, int[]> pondered = ponderUtilities.get(Zobrist.hash(board));
+        ponderUtilities.clear();
 
         // collect possible moves
         HashMap<Integer, Position[]> nextMoves = getNextMoves(board);
+        Integer[] order = nextMoves.keySet().toArray(new Integer[0]);
+        // in parallel mode every root move is searched first, then chosen
+        // from in the sequential order
+        int[][] searched = parallel() ? searchParallel(board, order, nextMoves, pondered) : null;
         // cycle through next moves
-        for (Integer moveInt : nextMoves.keySet()) {
-            // clone board
-            Board boardClone = new Board(300);
-            try {
-                boardClone = (Board) board.clone();
-            } catch (CloneNotSupportedException e) {
-                System.out.println(e);
-            }
-
-            // ERROR DEBUGGING:
-            // check if game is over
-            if (boardClone.gameOver() == true) continue;
-
-            // try this move
-            try {
-                boardClone.move(nextMoves.get(moveInt)[0], nextMoves.get(moveInt)[1], 1);
-            } catch (ImpossiblePositionException e) {
-                System.out.println(e);
+        for (int i = 0; i < order.length; i++) {
+            Integer moveInt = order[i];
+            // out of nodes or time, choose among the moves searched so far
+            if (nodeLimit > 0 && nodes + quiescenceNodes >= nodeLimit && bestUtility != null)
+                break;
+            if (searched == null && stopped())
+                break;
+            int[] utility;
+            if (searched != null)
+                utility = searched[i];
+            else if (pondered != null && pondered.containsKey(moveInt))
+                utility = pondered.get(moveInt);
+            else {
+                utility = evaluateRootMove(root, nextMoves.get(moveInt), stack);
+                collect(stack);
             }
-            // call maxN and initiate recursion
-            int[] utility = Arrays.copyOf(maxN(boardClone, 0), 3);
+            if (utility == null) continue;
             // assess for best utililty
-            if (utility[myColour.ordinal()] > bestUtility[myColour.ordinal()]) {
+            if (bestUtility == null || utility[myColour.ordinal()] > bestUtility[myColour.ordinal()]) {
                 bestUtility = Arrays.copyOf(utility, 3);
                 bestMoveInt = moveInt;
             }
         }
+        cutShort = stopped();
+        Position[] chosen;
         // deploy alternate strategy if no utility improvement
-        if (bestUtility[myColour.ordinal()] == initialUtility[myColour.ordinal()]) {
+        if (bestUtility == null || bestUtility[myColour.ordinal()] == initialUtility[myColour.ordinal()]) {
             // System.out.println("MaxN no best found");
             if (grudgeMode == true) {
-                return playGrudgeMove(board);
+                chosen = playGrudgeMove(board);
             } else {
-                return playBestMove(board);
+                chosen = playBestMove(board);
             }
         }
         // return best outcome move
-        return new Position[] { nextMoves.get(bestMoveInt)[0], nextMoves.get(bestMoveInt)[1] };
-    }
-
-    public int[] maxN(Board board, int moveCount) {
-
-        int[] bestUtility = { -100, -100, -100 };
-        moveCount++;
-        // if limit reached return utility[] of board
-        if (moveCount <= moveLimit) {
-            // collect possible moves
-            HashMap<Integer, Position[]> nextMoves = getNextMoves(board);
-            // recursively call all valid moves
-            for (Position[] move : nextMoves.values()) {
-                // clone board
-                Board boardClone = new Board(300);
-                try {
-                    boardClone = (Board) board.clone();
-                } catch (CloneNotSupportedException e) {
-                }
-                // try this move
-                try {
-                    boardClone.move(move[0], move[1], 1);
-                } catch (ImpossiblePositionException e) {
-                    System.out.println(e);
-                }
-                int[] utility = { -1, -1, -1 };
-                
-                // recursive call if game is not over
-                if (boardClone.gameOver() == false) {
-                    utility = maxN(boardClone, moveCount);
-                }
-                
-                // determine best utility for return
-                if (utility[board.getTurn().ordinal()] > bestUtility[board.getTurn().ordinal()]) {
-                    bestUtility = Arrays.copyOf(utility, 3);
+        else
+            chosen = new Position[] { nextMoves.get(bestMoveInt)[0], nextMoves.get(bestMoveInt)[1] };
+        // moves come from FastBoard tables, check with the game before committing
+        if (!board.isLegalMove(chosen[0], chosen[1]))
+            chosen = playRandomMove(board);
+        searchNanos = System.nanoTime() - searchStart;
+        if (reportStats)
+            System.out.println(name + " " + getSearchStats());
+        if (ponder)
+            startPondering(board, chosen);
+        return chosen;
+    }
+
+    /**
+     * Searches the root moves one at a time for anytime analysis, giving each
+     * to the listener with its utility and the best line after it. Stops
+     * early if the thread is interrupted; a root move cut short is not
+     * reported.
+     * 
+     * @param board    the position to search
+     * @param listener told of each root move as it is searched
+     **/
+    void searchRootMoves(Board board, RootListener listener) {
+        depthLimit = moveLimit;
+        myColour = board.getTurn();
+        resetStats();
+        prepareModel(board);
+        prepareTable();
+        FastBoard root = searchBoard(board);
+        SearchStack stack = newSearchStack();
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        int count = root.gameOver() ? 0 : root.generateMoves(moves);
+        for (int i = 0; i < count && !Ponderer.stopRequested(); i++) {
+            root.make(moves[i]);
+            int[] utility = maxN(root, 0, stack);
+            root.unmake();
+            collect(stack);
+            if (Ponderer.stopRequested())
+                break;
+            listener.rootMove(moves[i], utility, stack.pv[0], stack.pvLength[0]);
+        }
+    }
+
+    /**
+     * Receives the root moves of searchRootMoves.
+     **/
+    interface RootListener {
+        /**
+         * @param move     the packed root move
+         * @param utility  its utility, valid during the call
+         * @param pv       the best line after it, valid during the call
+         * @param pvLength number of moves in the line
+         **/
+        void rootMove(int move, int[] utility, int[] pv, int pvLength);
+    }
+
+    /**
+     * Sets the threads searching each move. With more than one, the root
+     * moves are searched at once as fork/join tasks, each on its own board
+     * and search stack, and the move is then chosen from their utilities in
+     * the sequential order, so the choice is the sequential search's. Root
+     * moves are independent subtrees, so they need no coordination beyond the
+     * shared transposition table, which may answer a node from a deeper
+     * search in either mode; with the table off, as in deterministic mode,
+     * every utility is the sequential one. A node limit needs the root moves
+     * in order, so with one set the search stays sequential.
+     *
+     * @param threads threads per search, 1 for the sequential search
+     **/
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        if (pool != null && pool.getParallelism() != this.threads) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private boolean parallel() {
+        return threads > 1 && nodeLimit == 0;
+    }
+
+    /**
+     * Searches the root moves not already pondered on the pool's threads.
+     * Each task takes an idle board and stack, made for the position when
+     * none is idle, so no more are made than tasks run at once.
+     *
+     * @return the utility of each move of order, null where the game is
+     *         over, or null if the search was interrupted
+     **/
+    private int[][] searchParallel(Board board, Integer[] order, HashMap<Integer, Position[]> nextMoves,
+            HashMap<Integer, int[]> pondered) {
+        if (pool == null)
+            pool = new ForkJoinPool(threads);
+        int[][] utilities = new int[order.length][];
+        ConcurrentLinkedQueue<RootWorker> idle = new ConcurrentLinkedQueue<RootWorker>();
+        List<RootWorker> workers = Collections.synchronizedList(new ArrayList<RootWorker>());
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < order.length; i++) {
+            if (pondered != null && pondered.containsKey(order[i])) {
+                utilities[i] = pondered.get(order[i]);
+                continue;
+            }
+            int index = i;
+            Position[] move = nextMoves.get(order[i]);
+            tasks.add(() -> {
+                RootWorker worker = idle.poll();
+                if (worker == null) {
+                    worker = new RootWorker(searchBoard(board), newSearchStack());
+                    workers.add(worker);
                 }
+                utilities[index] = evaluateRootMove(worker.root, move, worker.stack);
+                idle.add(worker);
+                return null;
+            });
+        }
+        List<ForkJoinTask<Object>> results = new ArrayList<ForkJoinTask<Object>>();
+        for (Callable<Object> task : tasks)
+            results.add(pool.submit(task));
+        try {
+            for (ForkJoinTask<Object> result : results)
+                result.get();
+        } catch (InterruptedException e) {
+            // the tasks run on the pool's threads, so tell them to stop too,
+            // and wait for them so that the pool is idle once this returns
+            stopping = true;
+            for (ForkJoinTask<Object> result : results)
+                result.quietlyJoin();
+            stopping = false;
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        for (RootWorker worker : workers)
+            collect(worker.stack);
+        return utilities;
+    }
+
+    /**
+     * A root move task's copy of the position and its scratch space.
+     **/
+    private static class RootWorker {
+        final FastBoard root;
+        final SearchStack stack;
+
+        RootWorker(FastBoard root, SearchStack stack) {
+            this.root = root;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * Bounds the time of the following searches: once the deadline passes,
+     * a search stops, discards the root move it was in, and chooses among the
+     * root moves it completed, or plays its fallback strategy if there are
+     * none. Interrupting the thread in playMove, as Ponderer.stop or a
+     * cancelled Future does, stops it the same way, root move tasks on the
+     * pool included.
+     *
+     * @param deadline a System.nanoTime() value, or 0 for no deadline
+     **/
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if the last move's search was stopped before it had
+     *         searched every root move
+     **/
+    public boolean isCutShort() {
+        return cutShort;
+    }
+
+    /**
+     * @return true if the search must stop: the thread was interrupted or the
+     *         deadline has passed
+     **/
+    private boolean stopped() {
+        return Ponderer.stopRequested() || stopping || (deadline != 0 && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Turns deterministic mode on or off. With a seed, every random choice is
+     * drawn from a generator seeded by the seed and the position, and nothing
+     * outside the position changes the search: pondering, the shared
+     * transposition table and the late game depth cut are off. The same
+     * position then gets the same search, node for node, in every run, and
+     * with nodeLimit the same amount of work, for comparing performance.
+     *
+     * @param seed the seed, or 0 for normal play, which turns pondering and
+     *             the table back to what they were before deterministic mode
+     **/
+    public void setSeed(long seed) {
+        if (this.seed == 0 && seed != 0) {
+            normalPonder = ponder;
+            normalTable = table;
+        }
+        if (seed != 0) {
+            setPondering(false);
+            table = null;
+        } else if (this.seed != 0) {
+            table = normalTable;
+            setPondering(normalPonder);
+        }
+        this.seed = seed;
+        random = null;
+    }
+
+    /**
+     * Limits the nodes of a move's search, quiescence nodes included. Once
+     * the limit is reached no more root moves are searched, so the search is
+     * bounded by work rather than time.
+     *
+     * @param nodeLimit the limit, or 0 for none
+     **/
+    public void setNodeLimit(int nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * @return plies searched below each root move before quiescence
+     **/
+    public int getMoveLimit() {
+        return moveLimit;
+    }
+
+    /**
+     * Plays a root move and searches the reply tree, then takes the move back.
+     * 
+     * @param root  the root position
+     * @param move  the move to evaluate
+     * @param stack scratch space for the search
+     * @return utility array of the move, or null if the game is already over
+     *         or the search was stopped
+     **/
+    private int[] evaluateRootMove(FastBoard root, Position[] move, SearchStack stack) {
+        // check if game is over
+        if (root.gameOver() == true) return null;
+
+        root.make(FastBoard.fromPositions(move[0], move[1]));
+        // call maxN and initiate recursion
+        int[] utility = Arrays.copyOf(maxN(root, 0, stack), 3);
+        root.unmake();
+        // a search cut short is incomplete, its utility is not the move's
+        return stopped() ? null : utility;
+    }
+
+    /**
+     * Searches the position with the MaxN algorithm: the colour to move picks
+     * the reply that maximises its own entry of the utility array. Moves are
+     * made and unmade on the FastBoard, and leaves are evaluated in constant
+     * time from its incremental material and piece-square terms, after a
+     * quiescence search if it is on. Without quiescence or trained weights,
+     * the children of the last level are scored together by BatchEvaluator
+     * rather than made one by one; both are on by default, so batchEvaluation
+     * only takes effect with quiescence set to 0 and either linearEvaluation
+     * set to 0 or grudge mode.
+     *
+     * With the opponent model on, an opponent whose play it predicts has its
+     * unlikely replies pruned (see OpponentModel.prune), so the search is
+     * spent on the replies the opponent actually plays.
+     *
+     * With the transposition table on, a node searched as deep before, by
+     * this search or any other sharing the table, is not searched again.
+     * 
+     * @param board     the position, restored before returning
+     * @param moveCount plies searched so far below the root move
+     * @param stack     scratch space for the search
+     * @return utility array of the position, valid until the next call at the
+     *         same depth
+     **/
+    public int[] maxN(FastBoard board, int moveCount, SearchStack stack) {
+
+        stack.nodes++;
+        stack.pvLength[moveCount] = 0;
+        // leaves without quiescence cost less to evaluate than to look up
+        if (table == null || board.gameOver() || (moveCount >= depthLimit && !quiescence))
+            return search(board, moveCount, stack);
+        long key = Zobrist.canonicalHash(board) ^ tableSalts[Symmetry.canonicalRotation(board.getTurn())];
+        int depth = depthLimit - moveCount;
+        if (probeTable(board, key, depth, moveCount, stack)) {
+            stack.tableHits++;
+            return stack.utility[moveCount];
+        }
+        int[] utility = search(board, moveCount, stack);
+        // a search cut short is incomplete, do not keep it
+        if (!stopped())
+            storeTable(board, key, depth, utility, stack.pvLength[moveCount] > 0 ? stack.pv[moveCount][0]
+                    : FastBoard.NULL_MOVE);
+        return utility;
+    }
+
+    /**
+     * The body of maxN, below the transposition table.
+     **/
+    private int[] search(FastBoard board, int moveCount, SearchStack stack) {
+        int[] bestUtility = stack.utility[moveCount];
+        // if limit reached or game over return utility[] of board
+        if (board.gameOver() || moveCount >= depthLimit) {
+            if (!quiescence || board.gameOver()) {
+                evaluate(board, bestUtility);
+                return bestUtility;
+            }
+            long start = System.nanoTime();
+            int[] utility = quiesce(board, moveCount, 0, -1, stack);
+            stack.quiescenceNanos += System.nanoTime() - start;
+            return utility;
+        }
+        int player = board.getTurn();
+        int[] moves = stack.moves[moveCount];
+        int count = board.generateMoves(moves);
+        if (pruning && player != myColour.ordinal() && opponentModel.getObservations(player) >= pruneObservations) {
+            int kept = opponentModel.prune(board, moves, count, pruneMass, stack.classSizes);
+            stack.prunedMoves += count - kept;
+            count = kept;
+        }
+        if (count > 0 && moveCount + 1 >= depthLimit && batched()) {
+            stack.nodes += count;
+            BatchEvaluator batch = stack.batch;
+            batch.evaluate(board, moves, count, grudgeMode ? myColour.ordinal() : -1);
+            int best = batch.best(player, count);
+            batch.get(best, bestUtility);
+            stack.pvLength[moveCount + 1] = 0;
+            stack.updatePv(moveCount, moves[best]);
+            return bestUtility;
+        }
+        boolean found = false;
+        // recursively call all valid moves
+        for (int i = 0; i < count; i++) {
+            if (stopped())
+                break;
+            board.make(moves[i]);
+            int[] utility = maxN(board, moveCount + 1, stack);
+            board.unmake();
+            // determine best utility for return
+            if (!found || utility[player] > bestUtility[player]) {
+                System.arraycopy(utility, 0, bestUtility, 0, 3);
+                stack.updatePv(moveCount, moves[i]);
+                found = true;
             }
+        }
+        // no legal move, score the position as it stands
+        if (!found)
+            evaluate(board, bestUtility);
+        return bestUtility;
+    }
+
+    /**
+     * Brings the opponent model up to date with the game's moves, and turns
+     * pruning on for the search if it predicts either opponent.
+     **/
+    private void prepareModel(Board board) {
+        pruning = false;
+        if (opponentModel == null)
+            return;
+        opponentModel.observe(board);
+        int me = myColour.ordinal();
+        pruning = opponentModel.getObservations((me + 1) % 3) >= pruneObservations
+                || opponentModel.getObservations((me + 2) % 3) >= pruneObservations;
+    }
 
+    /**
+     * Sets the table's key salts for a search from our colour. Stored
+     * utilities depend on the depth and evaluation settings, on the opponent
+     * model and our colour if it prunes, since it prunes every colour but ours
+     * by that colour's own weights, and in grudge mode on which colour is the
+     * grudging one. The agent's name is left out, as it tells nothing of the
+     * search the other salts do not. Keys are canonical
+     * (see Zobrist), so our colour is salted as it appears in each rotation.
+     **/
+    private void prepareTable() {
+        if (table == null)
+            return;
+        table.newSearch();
+        String evaluation = evaluator != null && !grudgeMode ? "linear" + System.identityHashCode(evaluator)
+                : "material";
+        for (int k = 0; k < Symmetry.ROTATIONS; k++)
+            tableSalts[k] = TranspositionTable.salt("MaxN", depthLimit, grudgeMode, evaluation, quiescence,
+                    quiescenceLimit, recaptureDepth, deltaMargin, grudgeMode ? Symmetry.rotateColour(myColour.ordinal(), k) : -1,
+                    pruning ? opponentModel.getId() + "/" + opponentModel.getVersion() + "/" + pruneMass + "/"
+                            + pruneObservations + "/" + Symmetry.rotateColour(myColour.ordinal(), k) : "all");
+    }
+
+    /**
+     * Looks a node up in the transposition table. Utilities are stored by
+     * colour in the canonical rotation, and the best move with them, so a hit
+     * also gives the first move of the node's principal variation.
+     *
+     * @return true if the node was found searched to at least depth plies,
+     *         its utility then in stack.utility[moveCount]
+     **/
+    private boolean probeTable(FastBoard board, long key, int depth, int moveCount, SearchStack stack) {
+        TranspositionTable.Entry entry = stack.entry;
+        if (!table.probe(key, entry) || entry.getDepth() < depth)
+            return false;
+        int k = Symmetry.canonicalRotation(board.getTurn());
+        int[] utility = stack.utility[moveCount];
+        for (int c = 0; c < 3; c++)
+            utility[c] = unpackUtility(entry.getData0(), entry.getData1(), Symmetry.rotateColour(c, k));
+        int move = (int) entry.getData1();
+        if (move != FastBoard.NULL_MOVE) {
+            stack.pvLength[moveCount + 1] = 0;
+            stack.updatePv(moveCount, Symmetry.fromCanonical(move, board.getTurn()));
         }
-        // check if limit has been reached
-        if (grudgeMode == true && (board.getTurn() == myColour))
-            bestUtility = Arrays.copyOf(myGrudgeUtility(board), 3);
-        else
-            bestUtility = Arrays.copyOf(myPiecesUtility(board), 3);
+        return true;
+    }
 
+    private void storeTable(FastBoard board, long key, int depth, int[] utility, int move) {
+        // canonical colour j is our colour rotated back
+        int back = Symmetry.inverse(Symmetry.canonicalRotation(board.getTurn()));
+        long first = utility[Symmetry.rotateColour(0, back)];
+        long second = utility[Symmetry.rotateColour(1, back)];
+        long third = utility[Symmetry.rotateColour(2, back)];
+        if (move != FastBoard.NULL_MOVE)
+            move = Symmetry.toCanonical(move, board.getTurn());
+        table.store(key, depth, first << 32 | (second & 0xFFFFFFFFL), third << 32 | (move & 0xFFFFFFFFL));
+    }
+
+    // data0 holds colours 0 and 1, data1 colour 2 above the move
+    private static int unpackUtility(long data0, long data1, int colour) {
+        return colour == 0 ? (int) (data0 >>> 32) : colour == 1 ? (int) data0 : (int) (data1 >>> 32);
+    }
+
+    /**
+     * @return true if leaves are evaluated in batches: they are not extended
+     *         by quiescence and are scored by material and square tables
+     **/
+    private boolean batched() {
+        return batchEvaluation && !quiescence && (evaluator == null || grudgeMode);
+    }
+
+    /**
+     * Extends a horizon node with captures only, so that leaves are not scored
+     * halfway through an exchange. Adapted to three players: the colour to
+     * move may stand pat, so the static utility is its lower bound, and it
+     * takes the capture line that maximises its own entry, as in maxN.
+     *
+     * Without alpha-beta bounds the capture tree of three players grows fast,
+     * so it is kept narrow: captures that lose material to a recapture are
+     * skipped, a capture is skipped (delta pruning) when even winning the
+     * victim outright plus deltaMargin could not raise the mover above its
+     * best so far, and after recaptureDepth plies only recaptures on the
+     * square of the last capture are searched.
+     * 
+     * @param board     the position, restored before returning
+     * @param moveCount stack level of this node
+     * @param depth     capture plies searched so far
+     * @param square    square of the last capture, or -1
+     * @param stack     scratch space for the search
+     * @return utility array of the position, valid until the next call at the
+     *         same level
+     **/
+    private int[] quiesce(FastBoard board, int moveCount, int depth, int square, SearchStack stack) {
+        stack.quiescenceNodes++;
+        int[] bestUtility = stack.utility[moveCount];
+        stack.pvLength[moveCount] = 0;
+        evaluate(board, bestUtility);
+        if (board.gameOver() || depth >= quiescenceLimit)
+            return bestUtility;
+        int player = board.getTurn();
+        int standPat = bestUtility[player];
+        int[] moves = stack.moves[moveCount];
+        int[] scores = stack.scores[moveCount];
+        int count = board.generateCaptures(moves);
+        board.scoreMoves(moves, count, scores);
+        for (int i = 0; i < count; i++) {
+            if (stopped())
+                break;
+            int move = FastBoard.pickBest(moves, scores, i, count);
+            int to = FastBoard.to(move);
+            if (depth >= recaptureDepth && to != square)
+                continue;
+            if (losingCapture(board, move))
+                continue;
+            if (standPat + captureGain(board, move) + deltaMargin <= bestUtility[player])
+                continue;
+            board.make(move);
+            int[] utility = quiesce(board, moveCount + 1, depth + 1, to, stack);
+            board.unmake();
+            if (utility[player] > bestUtility[player]) {
+                System.arraycopy(utility, 0, bestUtility, 0, 3);
+                stack.updatePv(moveCount, move);
+            }
+        }
         return bestUtility;
     }
 
+    /**
+     * A cheap static exchange test: a capture loses material if the capturing
+     * piece is worth more than its victim and another colour can take it back.
+     **/
+    private static boolean losingCapture(FastBoard board, int move) {
+        int attacker = board.getPiece(FastBoard.from(move));
+        int victim = board.getPiece(FastBoard.to(move));
+        if (FastBoard.typeOf(victim) == PieceType.KING.ordinal())
+            return false;
+        return FastBoard.valueOf(attacker) > FastBoard.valueOf(victim)
+                && board.attackedByOpponent(FastBoard.colourOf(attacker), FastBoard.to(move));
+    }
+
+    /**
+     * An estimate of the most a capture can add to the mover's utility: the
+     * victim's material and square value in the units of the evaluation in
+     * use. Taking a king ends the search, so it is never pruned.
+     **/
+    private int captureGain(FastBoard board, int move) {
+        int to = FastBoard.to(move);
+        int victim = board.getPiece(to);
+        if (FastBoard.typeOf(victim) == PieceType.KING.ordinal())
+            return WIN_SCORE;
+        if (evaluator != null && !grudgeMode)
+            return Math.abs(evaluator.getSquareTable()[victim][to]);
+        return FastBoard.valueOf(victim) * PieceSquareTable.MATERIAL_SCALE + Math.abs(PieceSquareTable.get(victim, to));
+    }
+
+    private void resetStats() {
+        nodes = 0;
+        quiescenceNodes = 0;
+        quiescenceNanos = 0;
+        tableHits = 0;
+        prunedMoves = 0;
+    }
+
+    /**
+     * Adds a search stack's counts to the statistics of the move, and zeroes
+     * them. Each thread counts on its own stack, so searches running at once
+     * do not share counters.
+     **/
+    private void collect(SearchStack stack) {
+        nodes += stack.nodes;
+        quiescenceNodes += stack.quiescenceNodes;
+        quiescenceNanos += stack.quiescenceNanos;
+        tableHits += stack.tableHits;
+        prunedMoves += stack.prunedMoves;
+        stack.nodes = 0;
+        stack.quiescenceNodes = 0;
+        stack.quiescenceNanos = 0;
+        stack.tableHits = 0;
+        stack.prunedMoves = 0;
+    }
+
+    /**
+     * @return node counts and times of the last move, with the quiescence
+     *         search reported apart from the main search
+     **/
+    public String getSearchStats() {
+        return String.format("nodes %d, quiescence nodes %d (%.1f%%), table hits %d, pruned replies %d, search "
+                + "%.1fms of which quiescence %.1fms", nodes, quiescenceNodes, 100.0 * quiescenceNodes / Math.max(1,
+                        nodes + quiescenceNodes), tableHits, prunedMoves, searchNanos / 1e6, quiescenceNanos / 1e6);
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    public long getQuiescenceNanos() {
+        return quiescenceNanos;
+    }
+
+    /**
+     * @return nodes of the last move answered by the transposition table
+     **/
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * @return opponent replies of the last move left unsearched as unlikely
+     **/
+    public long getPrunedMoves() {
+        return prunedMoves;
+    }
+
+    /**
+     * @return the model of the opponents' play, or null if it is off
+     **/
+    public OpponentModel getOpponentModel() {
+        return opponentModel;
+    }
+
+    /**
+     * Copies a board for searching, installing the trained evaluator's square
+     * table if it will be used.
+     **/
+    private FastBoard searchBoard(Board board) {
+        FastBoard root = new FastBoard(board);
+        if (evaluator != null && !grudgeMode)
+            root.setSquareTable(evaluator.getSquareTable());
+        return root;
+    }
+
+    /**
+     * Evaluates a position for the search: the trained linear evaluation if
+     * weights were loaded, otherwise material (grudge material for our colour
+     * in grudge mode) plus piece-square terms, with a decisive bonus and
+     * penalty once a king has been taken. Grudge mode always uses material, as
+     * the trained weights know nothing of victims.
+     **/
+    private void evaluate(FastBoard board, int[] utility) {
+        if (evaluator != null && !grudgeMode)
+            evaluator.evaluate(board, utility);
+        else
+            board.evaluate(grudgeMode ? myColour.ordinal() : -1, utility);
+        if (board.gameOver() && board.getWinner() >= 0) {
+            utility[board.getWinner()] += WIN_SCORE;
+            utility[board.getLoser()] -= WIN_SCORE;
+        }
+    }
+
+    /**
+     * @return scratch space for a search to the agent's depth and quiescence
+     *         limit
+     **/
+    SearchStack newSearchStack() {
+        return new SearchStack(moveLimit + quiescenceLimit);
+    }
+
+    /**
+     * Preallocated move lists and utility arrays for each ply of a search, so
+     * that searching allocates nothing per node, and the principal variation
+     * found below each ply: pv[ply] holds pvLength[ply] moves, the best line
+     * from that ply's position. The search's counters are kept here too, per
+     * thread, until collected.
+     **/
+    static class SearchStack {
+        final int[][] moves;
+        final int[][] scores;
+        final int[][] utility;
+        final int[][] pv;
+        final int[] pvLength;
+        final BatchEvaluator batch = new BatchEvaluator(WIN_SCORE, true);
+        final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        final int[] classSizes = new int[OpponentModel.CLASSES];
+        long nodes;
+        long quiescenceNodes;
+        long quiescenceNanos;
+        long tableHits;
+        long prunedMoves;
+
+        SearchStack(int depth) {
+            moves = new int[depth + 1][FastBoard.MAX_MOVES];
+            scores = new int[depth + 1][FastBoard.MAX_MOVES];
+            utility = new int[depth + 2][3];
+            pv = new int[depth + 2][depth + 2];
+            pvLength = new int[depth + 2];
+        }
+
+        /**
+         * Makes a move followed by the line below it the best line of a ply.
+         **/
+        void updatePv(int ply, int move) {
+            int length = pvLength[ply + 1];
+            pv[ply][0] = move;
+            System.arraycopy(pv[ply + 1], 0, pv[ply], 1, length);
+            pvLength[ply] = length + 1;
+        }
+    }
+
+    // PONDERING
+
+    /**
+     * Turns background search during opponents' turns on or off.
+     * 
+     * @param ponder true to ponder after each move
+     **/
+    public void setPondering(boolean ponder) {
+        this.ponder = ponder;
+        if (!ponder)
+            ponderer.stop();
+    }
+
+    /**
+     * Starts evaluating our root moves on a background thread for the positions
+     * the opponents' replies are predicted to reach. Completed root move
+     * utilities are reused by playMove if the game arrives there.
+     * 
+     * @param board the position we moved from
+     * @param move  the move we are about to play
+     **/
+    private void startPondering(Board board, Position[] move) {
+        Board afterMove;
+        try {
+            afterMove = (Board) board.clone();
+            afterMove.move(move[0], move[1]);
+        } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+            return;
+        }
+        if (afterMove.gameOver())
+            return;
+        ponderer.start(() -> {
+            SearchStack stack = newSearchStack();
+            for (Board position : predictPositions(afterMove)) {
+                HashMap<Integer, int[]> utilities = new HashMap<Integer, int[]>();
+                ponderUtilities.put(Zobrist.hash(position), utilities);
+                FastBoard root = searchBoard(position);
+                HashMap<Integer, Position[]> nextMoves = getNextMoves(position);
+                for (Integer moveInt : nextMoves.keySet()) {
+                    int[] utility = evaluateRootMove(root, nextMoves.get(moveInt), stack);
+                    // a search cut short by stop() is incomplete, discard it
+                    if (Ponderer.stopRequested())
+                        return;
+                    if (utility != null)
+                        utilities.put(moveInt, utility);
+                }
+            }
+        });
+    }
+
+    /**
+     * Predicts the positions reached after both opponents reply. Each opponent
+     * is assumed to take its most valuable capture, or to play randomly if it
+     * has none, so several samples are drawn and duplicates discarded.
+     * 
+     * @param afterMove the position after our move
+     * @return distinct predicted positions with us to move
+     **/
+    private List<Board> predictPositions(Board afterMove) {
+        List<Board> predicted = new ArrayList<Board>();
+        HashSet<Long> seen = new HashSet<Long>();
+        for (int sample = 0; sample < PONDER_PREDICTIONS && !Ponderer.stopRequested(); sample++) {
+            try {
+                Board position = (Board) afterMove.clone();
+                for (int reply = 0; reply < 2 && !position.gameOver(); reply++) {
+                    Position[] move = playBestMove(position);
+                    position.move(move[0], move[1]);
+                }
+                if (!position.gameOver() && seen.add(Zobrist.hash(position)))
+                    predicted.add(position);
+            } catch (CloneNotSupportedException | ImpossiblePositionException e) {
+                System.out.println(e);
+            }
+        }
+        return predicted;
+    }
+
     // SUPPLEMENTARY METHODS
 
     /**
@@ -170,43 +970,14 @@ public class MaxNAgent extends Agent {
      * @return a hashmap of moves
      */
     public static HashMap<Integer, Position[]> getNextMoves(Board board) {
-        
-        HashMap<Integer, Position[]> nextMovesHashmap = new HashMap<Integer, Position[]>();
-        Position[] myPositions = board.getPositions(board.getTurn()).toArray(new Position[0]);
-        Position start = myPositions[0];
-        Position end = myPositions[0]; // dummy illegal move
 
-        // cycle through my pieces
-        for (int i = 0; i < myPositions.length; i++) {
-            start = myPositions[i]; // start represents current piece location
-            Piece mover = board.getPiece(start);
-            Direction[][] dirCount = mover.getType().getSteps();
-            int maxReps = board.getPiece(start).getType().getStepReps();
-            // iterate through the allowed directions
-            for (int dirIndex = 0; dirIndex < dirCount.length; dirIndex++) {
-                Direction[] step = dirCount[dirIndex];
-                // create cloneboard for move
-                Board boardClone = new Board(300);
-                try {
-                    boardClone = (Board) board.clone();
-                } catch (CloneNotSupportedException e) {
-                }
-                // iterate through allowed number of reps of move
-                for (int actions = 1; actions <= maxReps; actions++) {
-                    // try to make the number of steps
-                    try {
-                        end = boardClone.step(mover, step, start);
-                    } catch (ImpossiblePositionException e) {
-                    }
-                    Integer thisCode = moveToInteger(new Position[] { start, end });
-                    // if a unique move that takes a piece is found
-                    if (board.isLegalMove(start, end) && !nextMovesHashmap.containsKey(thisCode)
-                            && ((start.getRow() != end.getRow()) || (start.getColumn() != end.getColumn()))) {
-                        // store move in hashmap
-                        nextMovesHashmap.put(thisCode, new Position[] { start, end });
-                    }
-                }
-            }
+        HashMap<Integer, Position[]> nextMovesHashmap = new HashMap<Integer, Position[]>();
+        // generate from the attack tables instead of testing every step
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        int count = new FastBoard(board).generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            Position[] move = FastBoard.toPositions(moves[i]);
+            nextMovesHashmap.put(moveToInteger(move), move);
         }
         return nextMovesHashmap;
     }
@@ -342,7 +1113,10 @@ public class MaxNAgent extends Agent {
      * @return a move to be played
      **/
     public Position[] playRandomMove(Board board) {
+        FastRandom random = this.random != null ? this.random : FastRandom.current();
         Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
+        // in set order the draws would depend on the run's hash codes
+        Arrays.sort(pieces);
         Position start = pieces[0];
         Position end = pieces[0]; // dummy illegal move
         while (!board.isLegalMove(start, end)) {
@@ -425,6 +1199,13 @@ public class MaxNAgent extends Agent {
      * @param finalBoard the end position of the board
      **/
     public void finalBoard(Board finalBoard) {
+        ponderer.stop();
+        ponderUtilities.clear();
+        // tournaments make a new agent per game, do not leave threads behind
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
 
 }
@@ -0,0 +1,290 @@
+package threeChess.agents;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import threeChess.*;
+
+/**
+ * An online model of how each colour chooses its moves, learned from the
+ * moves of the game so far, so that a search can skip the replies an
+ * opponent is unlikely to play. Simple bots are very predictable: a first or
+ * best kill agent captures whenever it can, a grudge agent prefers captures
+ * of the next colour, and a search that expands their quiet replies as
+ * carefully as their captures wastes most of its nodes.
+ *
+ * Moves are sorted into four classes: the most valuable capture available,
+ * other captures of the next colour, other captures of the previous colour,
+ * and quiet moves. For every move observed with more than one class on
+ * offer, the model counts the class chosen and each class's share of the
+ * legal moves; the ratio of the two is the class's weight, how much more
+ * often than a uniformly random player the colour picks a move of that
+ * class. A move's reply probability is its class weight over the sum of the
+ * weights of all legal moves.
+ *
+ * prune() drops whole classes, least likely first, while their total
+ * probability stays within a threshold. Only classes the colour plays less
+ * often than at random beyond reasonable doubt may be dropped, judged by an
+ * upper bound on their weight, so a random player, or one not yet observed,
+ * keeps every reply however unlikely each is. King captures are never
+ * dropped.
+ *
+ **/
+public class OpponentModel {
+
+    // CONSTANTS
+    public static final int BEST_CAPTURE = 0;
+    public static final int NEXT_CAPTURE = 1;
+    public static final int PREVIOUS_CAPTURE = 2;
+    public static final int QUIET = 3;
+    public static final int CLASSES = 4;
+    // pseudo-counts added to the chosen and offered counts of each class
+    private static final double PRIOR = 0.5;
+    // standard deviations of the upper bound on a class's weight
+    private static final double CONFIDENCE = 3;
+
+    // FIELDS
+    private static final AtomicLong ids = new AtomicLong();
+    // unique in the JVM, so that models of different agents never share keys
+    private final long id = ids.incrementAndGet();
+    private final double[][] chosen = new double[3][CLASSES];
+    private final double[][] exposure = new double[3][CLASSES];
+    private final int[] observations = new int[3];
+    private final int[] moves = new int[FastBoard.MAX_MOVES];
+    private final int[] sizes = new int[CLASSES];
+    // the game replayed up to the last move observed, and its moves
+    private FastBoard replay;
+    private int replayed;
+    private int[] history = new int[256];
+    private int version;
+
+    // METHODS
+
+    /**
+     * Learns from the moves played since the last call. A board from another
+     * game, or an earlier point of this one, starts the model afresh. Castling
+     * is replayed like any other move; should the replay still disagree with
+     * the board, it is copied from the board again.
+     *
+     * @param board the current position and its history
+     **/
+    public void observe(Board board) {
+        int moveCount = board.getMoveCount();
+        if (replay == null || !sameGame(board))
+            reset();
+        for (; replayed < moveCount; replayed++) {
+            Position[] move = board.getMove(replayed);
+            // no history to learn from
+            if (move == null)
+                break;
+            int packed = FastBoard.fromPositions(move[0], move[1]);
+            if (replayed == history.length)
+                history = Arrays.copyOf(history, 2 * history.length);
+            history[replayed] = packed;
+            learn(replay, packed);
+            replay.make(packed);
+            replay.clearHistory();
+        }
+        // a move the replay plays differently from the game would leave it out
+        // of step, and every later move would be learned in the wrong position
+        if (replayed == moveCount && !inStep(board))
+            replay = new FastBoard(board);
+    }
+
+    /**
+     * @return true if the replay has the board's pieces and colour to move
+     **/
+    private boolean inStep(Board board) {
+        for (Position position : FastBoard.POSITIONS) {
+            Piece piece = board.getPiece(position);
+            int code = piece == null ? FastBoard.EMPTY
+                    : FastBoard.piece(piece.getColour().ordinal(), piece.getType().ordinal());
+            if (replay.getPiece(position.ordinal()) != code)
+                return false;
+        }
+        return replay.getTurn() == board.getTurn().ordinal();
+    }
+
+    /**
+     * @return true if the board's history starts with the moves observed
+     **/
+    private boolean sameGame(Board board) {
+        if (board.getMoveCount() < replayed)
+            return false;
+        for (int i = 0; i < replayed; i++) {
+            Position[] move = board.getMove(i);
+            if (move == null || FastBoard.fromPositions(move[0], move[1]) != history[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets everything observed, ready for a new game.
+     **/
+    public void reset() {
+        replay = new FastBoard(new Board(0));
+        replayed = 0;
+        for (int c = 0; c < 3; c++) {
+            Arrays.fill(chosen[c], 0);
+            Arrays.fill(exposure[c], 0);
+        }
+        Arrays.fill(observations, 0);
+        version++;
+    }
+
+    /**
+     * Counts one move: the class chosen, and each class's share of the legal
+     * moves. Moves with only one class on offer tell nothing of preferences
+     * and are skipped.
+     *
+     * @param position the position the move was played from
+     * @param move     the packed move played
+     **/
+    void learn(FastBoard position, int move) {
+        if (position.gameOver())
+            return;
+        int colour = position.getTurn();
+        int count = position.generateMoves(moves);
+        int best = bestCapture(position, moves, count);
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < count; i++)
+            sizes[classify(position, moves[i], best)]++;
+        int offered = 0;
+        for (int j = 0; j < CLASSES; j++)
+            if (sizes[j] > 0)
+                offered++;
+        if (offered < 2)
+            return;
+        for (int j = 0; j < CLASSES; j++)
+            exposure[colour][j] += (double) sizes[j] / count;
+        chosen[colour][classify(position, move, best)]++;
+        observations[colour]++;
+        version++;
+    }
+
+    /**
+     * Removes the unlikely replies from a move list: whole classes of moves,
+     * least likely first, as long as the probability removed stays within
+     * mass. Classes not known to be played less often than at random are
+     * kept.
+     *
+     * @param board the position the moves are for
+     * @param moves the move list, compacted in place
+     * @param count number of moves in the list
+     * @param mass  the most reply probability to remove, below 1
+     * @param sizes scratch space of CLASSES entries
+     * @return the number of moves kept, at least one if count was
+     **/
+    public int prune(FastBoard board, int[] moves, int count, double mass, int[] sizes) {
+        int colour = board.getTurn();
+        int best = bestCapture(board, moves, count);
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < count; i++)
+            sizes[classify(board, moves[i], best)]++;
+        double total = 0;
+        for (int j = 0; j < CLASSES; j++)
+            total += sizes[j] * weight(colour, j);
+        int dropped = 0;
+        double droppedMass = 0;
+        while (true) {
+            int least = -1;
+            for (int j = 0; j < CLASSES; j++) {
+                if ((dropped >> j & 1) != 0 || sizes[j] == 0 || upperWeight(colour, j) >= 1)
+                    continue;
+                if (least < 0 || weight(colour, j) < weight(colour, least))
+                    least = j;
+            }
+            if (least < 0 || droppedMass + sizes[least] * weight(colour, least) > mass * total)
+                break;
+            droppedMass += sizes[least] * weight(colour, least);
+            dropped |= 1 << least;
+        }
+        if (dropped == 0)
+            return count;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int victim = board.getPiece(FastBoard.to(move));
+            boolean kingCapture = victim != FastBoard.EMPTY && FastBoard.typeOf(victim) == PieceType.KING.ordinal();
+            if (kingCapture || (dropped >> classify(board, move, best) & 1) == 0)
+                moves[kept++] = move;
+        }
+        return kept;
+    }
+
+    /**
+     * @return the class of a move: BEST_CAPTURE, NEXT_CAPTURE,
+     *         PREVIOUS_CAPTURE or QUIET
+     * @param best the value of the most valuable capture in the position
+     **/
+    static int classify(FastBoard board, int move, int best) {
+        int victim = board.getPiece(FastBoard.to(move));
+        if (victim == FastBoard.EMPTY)
+            return QUIET;
+        if (FastBoard.valueOf(victim) == best)
+            return BEST_CAPTURE;
+        int mover = FastBoard.colourOf(board.getPiece(FastBoard.from(move)));
+        return FastBoard.colourOf(victim) == (mover + 1) % 3 ? NEXT_CAPTURE : PREVIOUS_CAPTURE;
+    }
+
+    /**
+     * @return the value of the most valuable piece the moves capture, or 0
+     **/
+    static int bestCapture(FastBoard board, int[] moves, int count) {
+        int best = 0;
+        for (int i = 0; i < count; i++) {
+            int victim = board.getPiece(FastBoard.to(moves[i]));
+            if (victim != FastBoard.EMPTY)
+                best = Math.max(best, FastBoard.valueOf(victim));
+        }
+        return best;
+    }
+
+    /**
+     * @return how many times more often than at random the colour plays a
+     *         move of the class, 1 with nothing observed
+     **/
+    public double weight(int colour, int moveClass) {
+        return (chosen[colour][moveClass] + PRIOR) / (exposure[colour][moveClass] + PRIOR);
+    }
+
+    /**
+     * @return a bound the class's weight is unlikely to exceed, from the
+     *         Poisson spread of the number of times it was chosen
+     **/
+    public double upperWeight(int colour, int moveClass) {
+        double picks = chosen[colour][moveClass] + 1;
+        return (picks + CONFIDENCE * Math.sqrt(picks)) / (exposure[colour][moveClass] + PRIOR);
+    }
+
+    /**
+     * @return the number of informative moves observed of the colour
+     **/
+    public int getObservations(int colour) {
+        return observations[colour];
+    }
+
+    /**
+     * @return a number that changes whenever the model does; with getId, a
+     *         key for results that depend on it
+     **/
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a number no other model in the JVM has
+     **/
+    public long getId() {
+        return id;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder("opponent model");
+        for (int c = 0; c < 3; c++)
+            s.append(String.format("; %s %d moves, weights best %.2f next %.2f previous %.2f quiet %.2f",
+                    Colour.values()[c], observations[c], weight(c, BEST_CAPTURE), weight(c, NEXT_CAPTURE),
+                    weight(c, PREVIOUS_CAPTURE), weight(c, QUIET)));
+        return s.toString();
+    }
+}
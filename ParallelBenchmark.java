@@ -0,0 +1,100 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Measures the speedup of parallel MaxN (see MaxNAgent.setThreads) from one
+ * thread up to the number of cores, and checks that every thread count
+ * chooses the moves the sequential search does. Positions are reached by
+ * seeded random play and searched to the agent's depth with the
+ * transposition table off, so each thread count does exactly the same work
+ * and only the time differs.
+ *
+ * The speedup is bounded by the root moves: the search takes as long as its
+ * largest root subtree at least, and by the cores the machine actually has
+ * free.
+ *
+ * <pre>
+ * java threeChess.agents.ParallelBenchmark [positions] [maxThreads] [seed]
+ * </pre>
+ *
+ **/
+public class ParallelBenchmark {
+
+    /**
+     * @param args number of positions, most threads tried, and seed
+     **/
+    public static void main(String[] args) throws Exception {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        AgentParameters params = AgentParameters.getDefault().copy();
+        params.set("MaxNAgent.transpositions", 0);
+        Board[] boards = positions(positions, seed);
+        MaxNAgent agent = new MaxNAgent(params);
+        // one pass at the most threads warms the JIT up for all
+        agent.setThreads(maxThreads);
+        search(agent, boards, new Position[boards.length][]);
+
+        System.out.println(String.format("%d positions, %d cores available", boards.length,
+                Runtime.getRuntime().availableProcessors()));
+        System.out.println("threads       ms   speedup   efficiency      nodes   nodes/s     moves");
+        Position[][] sequential = null;
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            agent.setThreads(threads);
+            Position[][] chosen = new Position[boards.length][];
+            long start = System.nanoTime();
+            long nodes = search(agent, boards, chosen);
+            double millis = (System.nanoTime() - start) / 1e6;
+            if (sequential == null) {
+                sequential = chosen;
+                base = millis;
+            }
+            int same = 0;
+            for (int p = 0; p < boards.length; p++)
+                if (chosen[p][0] == sequential[p][0] && chosen[p][1] == sequential[p][1])
+                    same++;
+            System.out.println(String.format("%7d %8.0f %9.2f %11.0f%% %10d %9.0f   %d/%d same", threads, millis,
+                    base / millis, 100 * base / millis / threads, nodes, nodes * 1000 / millis, same, boards.length));
+        }
+    }
+
+    /**
+     * Chooses a move for each position.
+     *
+     * @return nodes searched, quiescence nodes included
+     **/
+    private static long search(MaxNAgent agent, Board[] boards, Position[][] chosen) {
+        long nodes = 0;
+        for (int p = 0; p < boards.length; p++) {
+            chosen[p] = agent.playMove(boards[p]);
+            nodes += agent.getNodes() + agent.getQuiescenceNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * @return positions reached by random play from the seed, with moves left
+     **/
+    private static Board[] positions(int count, long seed) throws Exception {
+        FastRandom random = new FastRandom(seed);
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        Board[] boards = new Board[count];
+        for (int p = 0; p < count;) {
+            Board board = new Board(600000);
+            int plies = random.nextInt(40);
+            for (int i = 0; i < plies && !board.gameOver(); i++) {
+                int moveCount = new FastBoard(board).generateMoves(moves);
+                if (moveCount == 0)
+                    break;
+                Position[] move = FastBoard.toPositions(moves[random.nextInt(moveCount)]);
+                board.move(move[0], move[1]);
+            }
+            if (!board.gameOver() && new FastBoard(board).generateMoves(moves) > 0)
+                boards[p++] = board;
+        }
+        return boards;
+    }
+}
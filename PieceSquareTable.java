@@ -0,0 +1,82 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Piece-square values for the three player board. Each value depends on the
+ * piece type and on the square relative to the piece's owner: its own section,
+ * the section of the next colour, or the section of the previous colour. The
+ * table is therefore the same for every colour, up to rotation of the board.
+ *
+ * Values are in hundredths of a pawn, so they combine with material scaled by
+ * MATERIAL_SCALE. Rows count from a section's back rank (0) to the centre (3).
+ *
+ **/
+public class PieceSquareTable {
+
+    // FIELDS
+    public static final int MATERIAL_SCALE = 100;
+    private static final int[] CENTRE = { 0, 4, 8, 12, 12, 8, 4, 0 };
+    static final int[][] TABLE = new int[FastBoard.TYPES.length * FastBoard.COLOURS.length + 1][FastBoard.SQUARES];
+
+    static {
+        for (int colour = 0; colour < FastBoard.COLOURS.length; colour++)
+            for (int type = 0; type < FastBoard.TYPES.length; type++)
+                for (int square = 0; square < FastBoard.SQUARES; square++) {
+                    Position position = FastBoard.POSITIONS[square];
+                    int section = (position.getColour().ordinal() - colour + 3) % 3;
+                    TABLE[FastBoard.piece(colour, type)][square] = value(FastBoard.TYPES[type], section,
+                            Math.min(3, position.getRow()), Math.min(7, position.getColumn()));
+                }
+    }
+
+    private PieceSquareTable() {
+    }
+
+    /**
+     * @param piece  FastBoard piece code
+     * @param square square index
+     * @return the positional value of the piece on the square
+     **/
+    public static int get(int piece, int square) {
+        return TABLE[piece][square];
+    }
+
+    /**
+     * The hand written table.
+     *
+     * @param type    piece type
+     * @param section 0 for the owner's section, 1 and 2 for the next and
+     *                previous colours' sections
+     * @param row     row from the section's back rank
+     * @param column  column within the section
+     **/
+    private static int value(PieceType type, int section, int row, int column) {
+        boolean home = section == 0;
+        switch (type) {
+            case PAWN:
+                // advancing pawns gain, most of all deep in an enemy section
+                // where they are walking toward promotion
+                if (home)
+                    return (row - 1) * 10 + CENTRE[column] / 2;
+                return 30 + (3 - row) * 15;
+            case KNIGHT:
+                // knights want the centre and hate the rim
+                return CENTRE[column] + row * 5 - (home && row == 0 ? 15 : 0) - (home ? 0 : (3 - row) * 5);
+            case BISHOP:
+                return CENTRE[column] / 2 + row * 4 - (home && row == 0 ? 10 : 0);
+            case ROOK:
+                // rooks are strong in enemy sections and on open central rows
+                return home ? row * 2 : 10 + (3 - row) * 3;
+            case QUEEN:
+                return CENTRE[column] / 2 + (home && row == 0 ? -5 : 0);
+            case KING:
+                // the king belongs on its own back rank, away from the centre
+                if (!home)
+                    return -60;
+                return -row * 20 + (column == 3 || column == 4 ? 0 : 10);
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package threeChess.agents;
+
+/**
+ * Runs an agent's background search while its opponents are on move. At most
+ * one pondering thread runs per agent. Searches run by a Ponderer must poll
+ * stopRequested() and return promptly once it is true; stop() interrupts the
+ * thread and does not return until it has exited, so no pondering work is
+ * still using the CPU when an agent starts its own move.
+ *
+ **/
+public class Ponderer {
+
+    // FIELDS
+    private Thread thread;
+
+    // METHODS
+
+    /**
+     * Starts a background search, stopping any search already running.
+     *
+     * @param search the search to run until stopped
+     **/
+    public synchronized void start(Runnable search) {
+        stop();
+        thread = new Thread(search, "ponder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the background search and waits for its thread to exit. Results
+     * written by the search are visible to the caller once this returns.
+     **/
+    public synchronized void stop() {
+        if (thread == null)
+            return;
+        boolean interrupted = false;
+        thread.interrupt();
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return true if the calling search has been asked to stop
+     **/
+    public static boolean stopRequested() {
+        return Thread.currentThread().isInterrupted();
+    }
+}
@@ -0,0 +1,151 @@
+package threeChess.agents;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import threeChess.*;
+
+/**
+ * Microbenchmark comparing a shared java.util.Random against per-thread
+ * FastRandom generators. It measures raw draws per second and random moves per
+ * second, using the rejection sampled move picker of the agents, at 1, 4 and 16
+ * threads.
+ *
+ **/
+public class RandomBenchmark {
+
+    // FIELDS
+    private static final Random shared = new Random();
+    private static final int[] THREADS = { 1, 4, 16 };
+    private static long runMillis = 2000;
+
+    /**
+     * A source of bounded random ints.
+     **/
+    private interface Source {
+        int nextInt(int bound);
+    }
+
+    private static final Source SHARED = bound -> shared.nextInt(bound);
+    private static final Source PER_THREAD = bound -> FastRandom.current().nextInt(bound);
+
+    /**
+     * @param args optional milliseconds per measurement, and "draws" to skip
+     *             the move benchmark when no game implementation is available
+     **/
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0)
+            runMillis = Long.parseLong(args[0]);
+        boolean drawsOnly = args.length > 1 && args[1].equals("draws");
+
+        System.out.println(String.format("%-10s %8s %16s %16s %8s", "benchmark", "threads", "shared Random/s",
+                "FastRandom/s", "speedup"));
+        for (int threads : THREADS)
+            report("draws", threads, measure(threads, RandomBenchmark::draws, SHARED),
+                    measure(threads, RandomBenchmark::draws, PER_THREAD));
+        if (drawsOnly)
+            return;
+        for (int threads : THREADS)
+            report("moves", threads, measure(threads, RandomBenchmark::moves, SHARED),
+                    measure(threads, RandomBenchmark::moves, PER_THREAD));
+    }
+
+    private static void report(String benchmark, int threads, double before, double after) {
+        System.out.println(String.format("%-10s %8d %16.0f %16.0f %7.2fx", benchmark, threads, before, after,
+                after / before));
+    }
+
+    /**
+     * Runs a workload on the given number of threads for the measurement time.
+     *
+     * @return operations per second over all threads
+     **/
+    private static double measure(int threads, Workload workload, Source source) throws Exception {
+        // warm up so both sources are compiled before timing
+        runWorkers(threads, workload, source, runMillis / 4);
+        return runWorkers(threads, workload, source, runMillis) * 1000.0 / runMillis;
+    }
+
+    private static long runWorkers(int threads, Workload workload, Source source, long millis) throws Exception {
+        LongAdder operations = new LongAdder();
+        long deadline = System.nanoTime() + millis * 1000000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++)
+                futures.add(pool.submit(() -> operations.add(workload.run(source, deadline))));
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            pool.shutdown();
+        }
+        return operations.sum();
+    }
+
+    private interface Workload {
+        long run(Source source, long deadline);
+    }
+
+    // WORKLOADS
+
+    /**
+     * Draws bounded ints, checking the clock every 4096 draws.
+     **/
+    private static long draws(Source source, long deadline) {
+        long count = 0;
+        int sink = 0;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 4096; i++)
+                sink += source.nextInt(32);
+            count += 4096;
+        }
+        if (sink == 42)
+            System.out.print("");
+        return count;
+    }
+
+    /**
+     * Plays random games, restarting from the initial position when a game
+     * ends, and counts the moves played.
+     **/
+    private static long moves(Source source, long deadline) {
+        long count = 0;
+        Board board = new Board(Integer.MAX_VALUE);
+        while (System.nanoTime() < deadline) {
+            if (board.gameOver())
+                board = new Board(Integer.MAX_VALUE);
+            Position[] move = randomMove(board, source);
+            try {
+                board.move(move[0], move[1]);
+            } catch (ImpossiblePositionException e) {
+                System.out.println(e);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The rejection sampled move picker used by the agents, parameterised by
+     * random source.
+     **/
+    private static Position[] randomMove(Board board, Source random) {
+        Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
+        Position start = pieces[0];
+        Position end = pieces[0]; // dummy illegal move
+        while (!board.isLegalMove(start, end)) {
+            start = pieces[random.nextInt(pieces.length)];
+            Piece mover = board.getPiece(start);
+            Direction[][] steps = mover.getType().getSteps();
+            Direction[] step = steps[random.nextInt(steps.length)];
+            int reps = 1 + random.nextInt(mover.getType().getStepReps());
+            end = start;
+            try {
+                for (int i = 0; i < reps; i++)
+                    end = board.step(mover, step, end, start.getColour() != end.getColour());
+            } catch (ImpossiblePositionException e) {
+            }
+        }
+        return new Position[] { start, end };
+    }
+}
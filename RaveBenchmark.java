@@ -0,0 +1,91 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Measures how quickly MCTSAgent settles on a move, with and without RAVE
+ * and progressive widening.
+ * For a set of positions reached by random play, a long uniform search gives a
+ * reference move. Each mode then searches the position afresh, checking its
+ * choice at doubling playout counts; the playouts needed is the first
+ * checkpoint from which the choice matches the reference at every later
+ * checkpoint. Positions where it never settles are counted separately.
+ *
+ * <pre>
+ * java threeChess.agents.RaveBenchmark [positions] [reference playouts] [budget]
+ * </pre>
+ *
+ **/
+public class RaveBenchmark {
+
+    /**
+     * @param args number of positions, reference playouts, and the largest
+     *             playout count tried by each mode
+     **/
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int referencePlayouts = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int budget = args.length > 2 ? Integer.parseInt(args[2]) : 12800;
+
+        AgentParameters params = new AgentParameters();
+        String[] names = { "plain", "rave", "widen", "both" };
+        MCTSAgent[] modes = new MCTSAgent[names.length];
+        for (int m = 0; m < modes.length; m++) {
+            modes[m] = new MCTSAgent(params);
+            modes[m].setRave(m % 2 == 1);
+            modes[m].setWidening(m >= 2);
+        }
+        MCTSAgent plain = modes[0];
+
+        FastRandom random = FastRandom.current();
+        FastBoard start = new FastBoard(new Board(0));
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        long[] total = new long[modes.length];
+        int[] unsettled = new int[modes.length];
+        int measured = 0;
+
+        for (int p = 0; p < positions; p++) {
+            // a middlegame position by random play
+            FastBoard root = new FastBoard();
+            root.copyFrom(start);
+            int plies = 10 + random.nextInt(30);
+            for (int i = 0; i < plies && !root.gameOver(); i++) {
+                int move = root.randomMove(random, moves);
+                if (move < 0)
+                    break;
+                root.make(move);
+            }
+            root.clearHistory();
+            if (root.gameOver() || root.generateMoves(moves) < 2)
+                continue;
+            measured++;
+
+            int reference = plain.search(root, new MCTSAgent.SearchStats(), referencePlayouts);
+            StringBuilder line = new StringBuilder("position " + p + ":");
+            for (int m = 0; m < modes.length; m++) {
+                MCTSAgent.SearchStats stats = new MCTSAgent.SearchStats();
+                int settled = -1;
+                int done = 0;
+                for (int checkpoint = 100; checkpoint <= budget; checkpoint *= 2) {
+                    int choice = modes[m].search(root, stats, checkpoint - done);
+                    done = checkpoint;
+                    if (choice != reference)
+                        settled = -1;
+                    else if (settled < 0)
+                        settled = checkpoint;
+                }
+                if (settled < 0) {
+                    unsettled[m]++;
+                    line.append(" ").append(names[m]).append(" never");
+                } else {
+                    total[m] += settled;
+                    line.append(" ").append(names[m]).append(" ").append(settled);
+                }
+            }
+            System.out.println(line);
+        }
+        for (int m = 0; m < names.length; m++)
+            System.out.printf("%-6s mean playouts to settle %.0f, unsettled %d of %d%n", names[m],
+                    (double) total[m] / Math.max(1, measured - unsettled[m]), unsettled[m], measured);
+    }
+}
@@ -0,0 +1,66 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Wraps an agent so that its games are written to a GameRecorder. The wrapped
+ * agent plays unchanged; the wrapper notes its colour in playMove and records
+ * the game from the final board in finalBoard.
+ *
+ * Agents that share a GameRecorder.Session (as in a Tournament) record each
+ * game once with all three names, and with the session's result if one was
+ * set. A lone wrapper records the game itself, naming only its own colour.
+ *
+ **/
+public class RecordingAgent extends Agent {
+
+    // FIELDS
+    private final Agent agent;
+    private final GameRecorder recorder;
+    private final GameRecorder.Session session;
+    private int colour = -1;
+
+    /**
+     * @param agent    the agent to record
+     * @param recorder the record file
+     **/
+    public RecordingAgent(Agent agent, GameRecorder recorder) {
+        this(agent, recorder, null);
+    }
+
+    /**
+     * @param agent    the agent to record
+     * @param recorder the record file
+     * @param session  the game shared with the other seats, or null
+     **/
+    public RecordingAgent(Agent agent, GameRecorder recorder, GameRecorder.Session session) {
+        this.agent = agent;
+        this.recorder = recorder;
+        this.session = session;
+    }
+
+    public Position[] playMove(Board board) {
+        colour = board.getTurn().ordinal();
+        return agent.playMove(board);
+    }
+
+    public void finalBoard(Board finalBoard) {
+        try {
+            agent.finalBoard(finalBoard);
+        } finally {
+            // the game is recorded even if the agent fails to clean up
+            if (session != null) {
+                session.finish(recorder, finalBoard);
+            } else {
+                String[] names = { "?", "?", "?" };
+                if (colour >= 0)
+                    names[colour] = agent.toString();
+                recorder.record(finalBoard, names);
+            }
+        }
+    }
+
+    public String toString() {
+        return agent.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * Measures MCTS and MaxN throughput in deterministic mode, for comparing
+ * builds or settings without the noise of timed searches. Both agents are
+ * seeded and given a fixed budget, MCTS in playouts and MaxN in nodes, and
+ * choose moves for positions reached by seeded random play. The runs repeat,
+ * the first warming up the JIT, and each run's moves and work are
+ * fingerprinted, so the check that every run did exactly the same work comes
+ * with the timings.
+ *
+ * <pre>
+ * java threeChess.agents.SearchBenchmark [positions] [playouts] [nodes] [seed] [runs]
+ * </pre>
+ *
+ **/
+public class SearchBenchmark {
+
+    /**
+     * @param args number of positions, MCTS playouts and MaxN nodes per move,
+     *             seed and number of runs
+     **/
+    public static void main(String[] args) throws Exception {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int playouts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+        Board[] boards = positions(positions, seed);
+        long[] mctsPrint = new long[runs];
+        long[] maxNPrint = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            MCTSAgent mcts = new MCTSAgent(AgentParameters.getDefault());
+            mcts.setSeed(seed);
+            mcts.setPlayoutLimit(playouts);
+            MaxNAgent maxN = new MaxNAgent(AgentParameters.getDefault());
+            maxN.setSeed(seed);
+            maxN.setNodeLimit(nodes);
+
+            long mctsNanos = 0, maxNNanos = 0, maxNNodes = 0, mctsNodes = 0;
+            long mctsHash = 17, maxNHash = 17;
+            for (Board board : boards) {
+                long start = System.nanoTime();
+                Position[] move = mcts.playMove(board);
+                mctsNanos += System.nanoTime() - start;
+                long created = mcts.getTree() == null ? 0 : mcts.getTree().getCreated();
+                mctsNodes += created;
+                mctsHash = fingerprint(mctsHash, move, created);
+
+                start = System.nanoTime();
+                move = maxN.playMove(board);
+                maxNNanos += System.nanoTime() - start;
+                long searched = maxN.getNodes() + maxN.getQuiescenceNodes();
+                maxNNodes += searched;
+                maxNHash = fingerprint(maxNHash, move, searched);
+            }
+            mctsPrint[run] = mctsHash;
+            maxNPrint[run] = maxNHash;
+            System.out.println(String.format("run %d%s: MCTS %.0f playouts/s, %d tree nodes, fingerprint %016x;"
+                    + " MaxN %.0f nodes/s, %d nodes, fingerprint %016x", run, run == 0 ? " (warm up)" : "",
+                    (double) playouts * boards.length * 1e9 / mctsNanos, mctsNodes, mctsHash,
+                    maxNNodes * 1e9 / maxNNanos, maxNNodes, maxNHash));
+        }
+        boolean identical = true;
+        for (int run = 1; run < runs; run++)
+            identical &= mctsPrint[run] == mctsPrint[0] && maxNPrint[run] == maxNPrint[0];
+        System.out.println(identical ? "all runs identical" : "RUNS DIFFER, the search is not deterministic");
+    }
+
+    private static long fingerprint(long hash, Position[] move, long work) {
+        hash = hash * 31 + move[0].ordinal();
+        hash = hash * 31 + move[1].ordinal();
+        return hash * 31 + work;
+    }
+
+    /**
+     * @return positions reached by random play from the seed, with moves left
+     **/
+    private static Board[] positions(int count, long seed) throws Exception {
+        FastRandom random = new FastRandom(seed);
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        Board[] boards = new Board[count];
+        for (int p = 0; p < count;) {
+            Board board = new Board(600000);
+            int plies = random.nextInt(40);
+            for (int i = 0; i < plies && !board.gameOver(); i++) {
+                int moveCount = new FastBoard(board).generateMoves(moves);
+                if (moveCount == 0)
+                    break;
+                Position[] move = FastBoard.toPositions(moves[random.nextInt(moveCount)]);
+                board.move(move[0], move[1]);
+            }
+            if (!board.gameOver() && new FastBoard(board).generateMoves(moves) > 0)
+                boards[p++] = board;
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,139 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import threeChess.*;
+
+/**
+ * A thin client of the AnalysisService: it owns no search state or threads,
+ * and asks the service shared by all games for each move, with a budget of a
+ * share of its remaining time. If the threeChess.analysis.url system property
+ * is set, e.g. to http://localhost:8765, the moves are asked of a service in
+ * another process over its loopback endpoint instead.
+ *
+ **/
+public class ServiceAgent extends Agent {
+
+    // FIELDS
+    public static final String URL_PROPERTY = "threeChess.analysis.url";
+    private String name = "Service";
+    private String engine = "MCTS";
+    private double rate = 0.05;
+
+    /**
+     * A no argument constructor, required for tournament management.
+     **/
+    public ServiceAgent() {
+        this(null, null);
+    }
+
+    /**
+     * Constructor for choosing the engine
+     *
+     * @param engine one of AnalysisService.ENGINES, or null for MCTS
+     * @param rate   fraction of the remaining time to use per move, or null
+     *               for the ServiceAgent.rate parameter
+     **/
+    public ServiceAgent(String engine, Double rate) {
+        this.rate = AgentParameters.getDefault().getDouble("ServiceAgent.rate", this.rate);
+        if (engine != null)
+            this.engine = engine;
+        if (rate != null)
+            this.rate = rate;
+        name += this.engine;
+    }
+
+    /**
+     * Play a move in the game chosen by the analysis service.
+     *
+     * @param board The representation of the game state.
+     * @return Position array representing suggested move
+     **/
+    public Position[] playMove(Board board) {
+        long budget = (long) (board.getTimeLeft(board.getTurn()) * rate);
+        String url = System.getProperty(URL_PROPERTY);
+        Position[] move = url == null ? AnalysisService.getShared().analyse(board, engine, budget)
+                : askRemote(url, board, budget);
+        if (move == null || !board.isLegalMove(move[0], move[1]))
+            move = playRandomMove(board);
+        return move;
+    }
+
+    /**
+     * Asks a service in another process, sending the game's moves so far.
+     *
+     * @return the move, or null if the service could not be reached
+     **/
+    private Position[] askRemote(String url, Board board, long budget) {
+        StringBuilder moves = new StringBuilder();
+        for (int i = 0; i < board.getMoveCount(); i++) {
+            Position[] move = board.getMove(i);
+            if (i > 0)
+                moves.append(',');
+            moves.append(move[0]).append('-').append(move[1]);
+        }
+        try {
+            URL request = new URL(url + "/move?engine=" + engine + "&budget=" + budget + "&moves="
+                    + URLEncoder.encode(moves.toString(), StandardCharsets.UTF_8));
+            HttpURLConnection connection = (HttpURLConnection) request.openConnection();
+            connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, budget + 10000));
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String[] ends = reader.readLine().trim().split("-");
+                return new Position[] { Position.valueOf(ends[0]), Position.valueOf(ends[1]) };
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e);
+            return null;
+        }
+    }
+
+    // METHODS FOR SIMPLE ALTERNATE MOVE STRATEGIES
+
+    /**
+     * Play a random move in the game.
+     *
+     * @param board The representation of the game state.
+     * @return a move to be played
+     **/
+    public Position[] playRandomMove(Board board) {
+        FastRandom random = FastRandom.current();
+        Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
+        Position start = pieces[0];
+        Position end = pieces[0]; // dummy illegal move
+        while (!board.isLegalMove(start, end)) {
+            start = pieces[random.nextInt(pieces.length)];
+            Piece mover = board.getPiece(start);
+            Direction[][] steps = mover.getType().getSteps();
+            Direction[] step = steps[random.nextInt(steps.length)];
+            int reps = 1 + random.nextInt(mover.getType().getStepReps());
+            end = start;
+            try {
+                for (int i = 0; i < reps; i++)
+                    end = board.step(mover, step, end, start.getColour() != end.getColour());
+            } catch (ImpossiblePositionException e) {
+            }
+        }
+        return new Position[] { start, end };
+    }
+
+    // METHODS REQUIRED FOR TOURNAMENT
+
+    /**
+     * @return the Agent's name, for annotating game description.
+     **/
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Displays the final board position to the agent, if required for learning
+     * purposes. Other a default implementation may be given.
+     *
+     * @param finalBoard the end position of the board
+     **/
+    public void finalBoard(Board finalBoard) {
+    }
+
+}
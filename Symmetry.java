@@ -0,0 +1,125 @@
+package threeChess.agents;
+
+import threeChess.*;
+
+/**
+ * The three-fold rotational symmetry of the board. Rotating by k moves every
+ * piece to the same row and column of the section k colours on
+ * (BLUE to GREEN to RED) and recolours it the same way; the rules, the turn
+ * order and every evaluation commute with the rotation, so a rotated position
+ * is the same position for any cache.
+ *
+ * The canonical rotation of a position is the one that puts BLUE to move.
+ * Position-keyed stores should key by Zobrist.canonicalHash and store moves
+ * with toCanonical, mapping them back with fromCanonical, so each position is
+ * stored once rather than once per colour.
+ *
+ **/
+public class Symmetry {
+
+    // FIELDS
+    public static final int ROTATIONS = Colour.values().length;
+    private static final Position[] POSITIONS = Position.values();
+    // ROTATE[k][square] is the square reached by rotating k colours on
+    private static final int[][] ROTATE = new int[ROTATIONS][POSITIONS.length];
+
+    static {
+        for (int k = 0; k < ROTATIONS; k++) {
+            for (Position position : POSITIONS) {
+                int colour = (position.getColour().ordinal() + k) % ROTATIONS;
+                ROTATE[k][position.ordinal()] = -1;
+                for (Position image : POSITIONS) {
+                    if (image.getColour().ordinal() == colour && image.getRow() == position.getRow()
+                            && image.getColumn() == position.getColumn()) {
+                        ROTATE[k][position.ordinal()] = image.ordinal();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    // METHODS
+
+    /**
+     * @param turn ordinal of the colour to move
+     * @return the rotation that puts BLUE to move
+     **/
+    public static int canonicalRotation(int turn) {
+        return (ROTATIONS - turn) % ROTATIONS;
+    }
+
+    /**
+     * @return the rotation undoing rotation k
+     **/
+    public static int inverse(int k) {
+        return (ROTATIONS - k) % ROTATIONS;
+    }
+
+    /**
+     * @return the colour ordinal a colour becomes under rotation k
+     **/
+    public static int rotateColour(int colour, int k) {
+        return (colour + k) % ROTATIONS;
+    }
+
+    /**
+     * @return the square index a square becomes under rotation k
+     **/
+    public static int rotateSquare(int square, int k) {
+        return ROTATE[k][square];
+    }
+
+    /**
+     * @return the FastBoard piece code a piece becomes under rotation k
+     **/
+    public static int rotatePiece(int piece, int k) {
+        if (piece == FastBoard.EMPTY)
+            return piece;
+        return FastBoard.piece(rotateColour(FastBoard.colourOf(piece), k), FastBoard.typeOf(piece));
+    }
+
+    /**
+     * @return the packed FastBoard move a move becomes under rotation k
+     **/
+    public static int rotateMove(int move, int k) {
+        if (move == FastBoard.NULL_MOVE)
+            return move;
+        return FastBoard.move(ROTATE[k][FastBoard.from(move)], ROTATE[k][FastBoard.to(move)]);
+    }
+
+    public static Position rotate(Position position, int k) {
+        return POSITIONS[ROTATE[k][position.ordinal()]];
+    }
+
+    public static Colour rotate(Colour colour, int k) {
+        return Colour.values()[rotateColour(colour.ordinal(), k)];
+    }
+
+    /**
+     * Maps a move in a position with the given colour to move into the
+     * canonical rotation of that position.
+     *
+     * @param move packed FastBoard move
+     * @param turn ordinal of the colour to move
+     * @return the packed move in the canonical position
+     **/
+    public static int toCanonical(int move, int turn) {
+        return rotateMove(move, canonicalRotation(turn));
+    }
+
+    /**
+     * Maps a move stored for a canonical position back to the position with
+     * the given colour to move.
+     *
+     * @param move packed FastBoard move in the canonical position
+     * @param turn ordinal of the colour to move in the actual position
+     * @return the packed move in the actual position
+     **/
+    public static int fromCanonical(int move, int turn) {
+        return rotateMove(move, turn % ROTATIONS);
+    }
+}
@@ -0,0 +1,507 @@
+package threeChess.agents;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import threeChess.*;
+
+/**
+ * A local self-play tournament runner for evaluating agent configurations.
+ * Games are played concurrently across a worker pool, every triple of entrants
+ * is played in all six seat colour arrangements, and each agent's clock is
+ * enforced by the runner. Agents are driven only through playMove and
+ * finalBoard, so any Agent subclass can be entered unchanged.
+ *
+ **/
+public class Tournament {
+
+    // FIELDS
+    private final List<Entrant> entrants = new ArrayList<Entrant>();
+    private int timeLimit = 60000;
+    private int maxMoves = 1500;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private GameRecorder recorder;
+    private static final long GRACE_MILLIS = 200;
+    private static final long STOP_MILLIS = 2000;
+    private static final double Z95 = 1.96;
+
+    // CONSTRUCTORS
+
+    /**
+     * Creates a tournament using the default clock and one game per core.
+     **/
+    public Tournament() {
+    }
+
+    /**
+     * @param timeLimit the time each player starts with, in milliseconds
+     * @param threads   the number of games to run concurrently
+     **/
+    public Tournament(int timeLimit, int threads) {
+        this.timeLimit = timeLimit;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds an agent configuration to the tournament. A new agent is created from
+     * the factory for every game, since agents keep per game state.
+     *
+     * @param name    the label used in results
+     * @param factory creates a fresh agent instance
+     **/
+    public void addEntrant(String name, Supplier<Agent> factory) {
+        entrants.add(new Entrant(name, factory));
+    }
+
+    /**
+     * Sets the number of moves after which a game is declared drawn.
+     *
+     * @param maxMoves move cap for each game
+     **/
+    public void setMaxMoves(int maxMoves) {
+        this.maxMoves = maxMoves;
+    }
+
+    /**
+     * Records every game played from now on.
+     *
+     * @param recorder the record file, or null to stop recording
+     **/
+    public void setRecorder(GameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public List<Entrant> getEntrants() {
+        return entrants;
+    }
+
+    // SCHEDULING
+
+    /**
+     * Plays the given number of rounds. A round plays every combination of three
+     * entrants in all six seat arrangements, so each entrant sits in each colour
+     * equally often.
+     *
+     * @param rounds number of rounds to play
+     * @return the results of all games, in schedule order
+     **/
+    public List<GameResult> run(int rounds) {
+        if (entrants.size() < 3)
+            throw new IllegalStateException("a tournament needs at least three entrants");
+
+        List<int[]> schedule = new ArrayList<int[]>();
+        for (int r = 0; r < rounds; r++)
+            for (int a = 0; a < entrants.size(); a++)
+                for (int b = a + 1; b < entrants.size(); b++)
+                    for (int c = b + 1; c < entrants.size(); c++)
+                        for (int[] seats : permutations(a, b, c))
+                            schedule.add(seats);
+
+        ExecutorService gamePool = Executors.newFixedThreadPool(threads, daemonThreads("game"));
+        // each move is run on its own thread so a hung agent can be abandoned
+        ExecutorService movePool = Executors.newCachedThreadPool(daemonThreads("move"));
+        try {
+            List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>();
+            for (int[] seats : schedule)
+                futures.add(gamePool.submit(() -> playGame(seats, movePool)));
+            List<GameResult> results = new ArrayList<GameResult>();
+            for (Future<GameResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    System.out.println(e.getCause());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } finally {
+            gamePool.shutdownNow();
+            movePool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the six seat arrangements of three entrants
+     **/
+    private static int[][] permutations(int a, int b, int c) {
+        return new int[][] { { a, b, c }, { a, c, b }, { b, a, c }, { b, c, a }, { c, a, b }, { c, b, a } };
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "tournament-" + prefix);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // GAME PLAY
+
+    /**
+     * Plays a single game. The agent to move is given a clone of the board and
+     * its thinking time is charged to its clock. An agent that runs out of time,
+     * throws, or returns an illegal move forfeits the game. A move over time is
+     * interrupted, and waited for a while so that finalBoard does not run
+     * alongside it; a move that ignores the interrupt is reported and left.
+     *
+     * @param seats    the entrant index seated at each colour ordinal
+     * @param movePool executor used to run individual moves
+     * @return the result of the game
+     **/
+    public GameResult playGame(int[] seats, ExecutorService movePool) {
+        Colour[] colours = Colour.values();
+        Agent[] agents = new Agent[colours.length];
+        for (int i = 0; i < colours.length; i++)
+            agents[i] = entrants.get(seats[i]).factory.get();
+        GameRecorder.Session session = null;
+        if (recorder != null) {
+            String[] names = new String[colours.length];
+            for (int i = 0; i < colours.length; i++)
+                names[i] = entrants.get(seats[i]).name;
+            session = new GameRecorder.Session(names);
+            for (int i = 0; i < colours.length; i++)
+                agents[i] = new RecordingAgent(agents[i], recorder, session);
+        }
+
+        Board board = new Board(timeLimit);
+        GameResult result = new GameResult(seats);
+        long[] used = new long[colours.length];
+
+        while (!board.gameOver()) {
+            if (board.getMoveCount() >= maxMoves) {
+                result.reason = "move limit";
+                break;
+            }
+            Colour turn = board.getTurn();
+            Agent agent = agents[turn.ordinal()];
+            long timeLeft = board.getTimeLeft(turn);
+            Board boardClone;
+            try {
+                boardClone = (Board) board.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            long timeA = System.nanoTime();
+            MoveTask task = new MoveTask(agent, boardClone);
+            Future<Position[]> pending = movePool.submit(task);
+            Position[] move = null;
+            String fault = null;
+            try {
+                move = pending.get(timeLeft + GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                pending.cancel(true);
+                // the agents are only told the game is over once the move stops
+                if (!task.awaitStop(STOP_MILLIS))
+                    System.out.println(String.format("%s (%s) ignored the interrupt, thread %s abandoned", agent,
+                            turn, task.runner.getName()));
+                fault = "time";
+            } catch (ExecutionException e) {
+                fault = "exception " + e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.cancel(true);
+                result.reason = "interrupted";
+                break;
+            }
+            long elapsed = (System.nanoTime() - timeA) / 1000000;
+            used[turn.ordinal()] += elapsed;
+
+            if (fault == null && elapsed > timeLeft)
+                fault = "time";
+            if (fault == null && (move == null || move.length != 2 || !board.isLegalMove(move[0], move[1])))
+                fault = "illegal move";
+            if (fault != null) {
+                forfeit(board, result, turn, fault);
+                break;
+            }
+            try {
+                board.move(move[0], move[1], (int) elapsed);
+            } catch (ImpossiblePositionException e) {
+                forfeit(board, result, turn, "illegal move");
+                break;
+            }
+        }
+
+        if (board.gameOver() && result.loser == null) {
+            result.winner = board.getWinner();
+            result.loser = board.getLoser();
+            result.reason = "king taken";
+        }
+        result.moves = board.getMoveCount();
+        result.timeUsed = used;
+        // a forfeit leaves no winner on the board
+        if (session != null)
+            session.setResult(result.winner, result.loser);
+        for (Agent agent : agents) {
+            try {
+                agent.finalBoard(board);
+            } catch (RuntimeException e) {
+                System.out.println(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * One move of an agent on the move pool. Notes the thread running it, so
+     * that a cancelled move can be waited for.
+     **/
+    private static class MoveTask implements Callable<Position[]> {
+        private final Agent agent;
+        private final Board board;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Thread runner;
+
+        MoveTask(Agent agent, Board board) {
+            this.agent = agent;
+            this.board = board;
+        }
+
+        public Position[] call() {
+            runner = Thread.currentThread();
+            try {
+                return agent.playMove(board);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Waits for a cancelled move to return.
+         *
+         * @return true if the move never started or has returned
+         **/
+        boolean awaitStop(long millis) {
+            if (runner == null)
+                return true;
+            try {
+                return done.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Records a forfeit by the given colour. The winner is the remaining player
+     * with the most captured material, as the game would score a timeout.
+     **/
+    private static void forfeit(Board board, GameResult result, Colour loser, String reason) {
+        int[] material = MaxNAgent.myPiecesUtility(board);
+        Colour[] colours = Colour.values();
+        Colour winner = null;
+        for (int i = 1; i < colours.length; i++) {
+            Colour candidate = colours[(loser.ordinal() + i) % colours.length];
+            if (winner == null || material[candidate.ordinal()] > material[winner.ordinal()])
+                winner = candidate;
+        }
+        result.loser = loser;
+        result.winner = winner;
+        result.reason = reason;
+    }
+
+    // RATINGS
+
+    /**
+     * Summarises results per entrant. Each three player game is scored as three
+     * pairwise encounters: the winner beats both others, the remaining player
+     * beats the loser, and a drawn game halves every pairing. Ratings are fitted
+     * with a Bradley-Terry model on the Elo scale, anchored at a mean of zero.
+     *
+     * @param results games to summarise
+     * @return one standing per entrant, best rating first
+     **/
+    public List<Standing> standings(List<GameResult> results) {
+        int n = entrants.size();
+        double[][] pairWins = new double[n][n];
+        Standing[] standings = new Standing[n];
+        for (int i = 0; i < n; i++)
+            standings[i] = new Standing(entrants.get(i).name);
+
+        for (GameResult result : results) {
+            for (int i = 0; i < 3; i++)
+                standings[result.seats[i]].played++;
+            if (result.winner == null) {
+                for (int i = 0; i < 3; i++) {
+                    standings[result.seats[i]].draws++;
+                    for (int j = 0; j < 3; j++)
+                        if (i != j)
+                            pairWins[result.seats[i]][result.seats[j]] += 0.5;
+                }
+                continue;
+            }
+            int winner = result.seats[result.winner.ordinal()];
+            int loser = result.seats[result.loser.ordinal()];
+            int middle = result.seats[3 - result.winner.ordinal() - result.loser.ordinal()];
+            standings[winner].wins++;
+            standings[loser].losses++;
+            pairWins[winner][middle] += 1;
+            pairWins[winner][loser] += 1;
+            pairWins[middle][loser] += 1;
+        }
+
+        double[] elo = bradleyTerry(pairWins);
+        for (int i = 0; i < n; i++) {
+            double won = 0;
+            double games = 0;
+            for (int j = 0; j < n; j++) {
+                won += pairWins[i][j];
+                games += pairWins[i][j] + pairWins[j][i];
+            }
+            Standing standing = standings[i];
+            standing.elo = elo[i];
+            standing.pairScore = games > 0 ? won / games : 0.5;
+            standing.eloError = eloError(standing.pairScore, games);
+        }
+        List<Standing> sorted = new ArrayList<Standing>(Arrays.asList(standings));
+        sorted.sort((a, b) -> Double.compare(b.elo, a.elo));
+        return sorted;
+    }
+
+    /**
+     * Fits Bradley-Terry strengths with the minorisation-maximisation iteration
+     * and converts them to Elo points.
+     **/
+    private static double[] bradleyTerry(double[][] wins) {
+        int n = wins.length;
+        double[] gamma = new double[n];
+        Arrays.fill(gamma, 1.0);
+        for (int iter = 0; iter < 1000; iter++) {
+            double change = 0;
+            double[] next = new double[n];
+            for (int i = 0; i < n; i++) {
+                // a small prior of one drawn pairing against the field keeps
+                // unbeaten or winless entrants finite
+                double won = 0.5;
+                double denominator = 1.0 / (gamma[i] + 1.0);
+                for (int j = 0; j < n; j++) {
+                    if (i == j)
+                        continue;
+                    double games = wins[i][j] + wins[j][i];
+                    won += wins[i][j];
+                    if (games > 0)
+                        denominator += games / (gamma[i] + gamma[j]);
+                }
+                next[i] = won / denominator;
+            }
+            double logMean = 0;
+            for (int i = 0; i < n; i++)
+                logMean += Math.log(next[i]) / n;
+            for (int i = 0; i < n; i++) {
+                next[i] /= Math.exp(logMean);
+                change = Math.max(change, Math.abs(next[i] - gamma[i]));
+            }
+            gamma = next;
+            if (change < 1e-9)
+                break;
+        }
+        double[] elo = new double[n];
+        for (int i = 0; i < n; i++)
+            elo[i] = 400 * Math.log10(gamma[i]);
+        return elo;
+    }
+
+    /**
+     * Half width of the 95% confidence interval of a rating, from the standard
+     * error of the pairwise score mapped through the Elo curve.
+     **/
+    private static double eloError(double score, double games) {
+        if (games == 0)
+            return Double.POSITIVE_INFINITY;
+        double p = Math.min(Math.max(score, 0.5 / games), 1 - 0.5 / games);
+        return Z95 * 400 / Math.log(10) / Math.sqrt(games * p * (1 - p));
+    }
+
+    /**
+     * @return a printable table of the standings
+     **/
+    public static String report(List<Standing> standings) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-16s %6s %5s %5s %5s %7s %8s%n", "agent", "games", "won", "lost", "drawn", "score",
+                "elo"));
+        for (Standing s : standings)
+            out.append(String.format("%-16s %6d %5d %5d %5d %6.1f%% %+6.0f +/- %.0f%n", s.name, s.played, s.wins,
+                    s.losses, s.draws, 100 * s.pairScore, s.elo, s.eloError));
+        return out.toString();
+    }
+
+    // SUPPLEMENTARY STRUCTURE
+
+    /**
+     * A named agent configuration.
+     **/
+    public static class Entrant {
+        public final String name;
+        public final Supplier<Agent> factory;
+
+        public Entrant(String name, Supplier<Agent> factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * The outcome of one game. Winner and loser are null for a drawn game.
+     **/
+    public static class GameResult {
+        public final int[] seats;
+        public Colour winner;
+        public Colour loser;
+        public String reason = "";
+        public int moves;
+        public long[] timeUsed;
+
+        public GameResult(int[] seats) {
+            this.seats = seats;
+        }
+    }
+
+    /**
+     * Totals and rating for one entrant.
+     **/
+    public static class Standing {
+        public final String name;
+        public int played;
+        public int wins;
+        public int losses;
+        public int draws;
+        public double pairScore;
+        public double elo;
+        public double eloError;
+
+        public Standing(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Runs a tournament between the standard agent configurations.
+     *
+     * @param args optional rounds, time limit in milliseconds, thread count and
+     *             game record file
+     **/
+    public static void main(String[] args) throws java.io.IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int timeLimit = args.length > 1 ? Integer.parseInt(args[1]) : 60000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Tournament tournament = new Tournament(timeLimit, threads);
+        tournament.addEntrant("MCTS03G", () -> new MCTSAgent(0.3, true));
+        tournament.addEntrant("MCTS", () -> new MCTSAgent());
+        tournament.addEntrant("MaxN15", () -> new MaxNAgent(15, false));
+        tournament.addEntrant("BRS", () -> new BRSAgent());
+        tournament.addEntrant("BestK", () -> new BestKillAgent());
+        tournament.addEntrant("Grudge", () -> new GrudgeAgent());
+
+        GameRecorder recorder = args.length > 3 ? new GameRecorder(java.nio.file.Paths.get(args[3])) : null;
+        tournament.setRecorder(recorder);
+        List<GameResult> results = tournament.run(rounds);
+        if (recorder != null)
+            recorder.close();
+        System.out.print(report(tournament.standings(results)));
+    }
+}
@@ -0,0 +1,282 @@
+package threeChess.agents;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A transposition table shared by every search in the JVM, so that games and
+ * threads hosted together reuse each other's work without serialising on a
+ * lock. All entries live in one long[], sized in megabytes when the table is
+ * created; searches of every kind store into it at once, each under its own
+ * key salt (see salt) so their results never mix.
+ *
+ * Entries are four longs: a check word, a header and two payload words. The
+ * check word is the key XOR the other three, so an entry is only accepted if
+ * its words decode to the probed key. Readers and
+ * writers use plain array accesses and never wait: a reader racing a writer
+ * may see words of two different entries, which then fail the check and
+ * count as torn rather than returning another position's data.
+ *
+ * Entries are grouped in buckets of two, 64 bytes, one cache line, chosen by
+ * the low bits of the key; the header keeps the top 16 bits of the key, so a
+ * torn entry is told apart from another position's entry. A store overwrites
+ * its own key, else the bucket entry of the lowest depth, preferring entries
+ * left by earlier searches.
+ *
+ * <pre>
+ * java -DthreeChess.tt.megabytes=256 ...
+ * </pre>
+ *
+ **/
+public class TranspositionTable {
+
+    // CONSTANTS
+    public static final String MEGABYTES_PROPERTY = "threeChess.tt.megabytes";
+    public static final int DEFAULT_MEGABYTES = 64;
+    private static final int ENTRY_LONGS = 4;
+    private static final int BUCKET_ENTRIES = 2;
+    private static final int BUCKET_LONGS = ENTRY_LONGS * BUCKET_ENTRIES;
+
+    // FIELDS
+    private static TranspositionTable shared;
+    private final long[] table;
+    private final int bucketMask;
+    private volatile int generation = 1;
+
+    // metrics
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder torn = new LongAdder();
+
+    /**
+     * @param megabytes size of the table, rounded down to a power of two
+     **/
+    public TranspositionTable(int megabytes) {
+        long buckets = Long.highestOneBit(Math.max(1L, (long) megabytes * (1 << 20) / (BUCKET_LONGS * 8)));
+        buckets = Math.min(buckets, Integer.MAX_VALUE / BUCKET_LONGS + 1L);
+        table = new long[(int) (buckets * BUCKET_LONGS)];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /**
+     * @return the table shared by all agents, created on first use with the
+     *         size given by the threeChess.tt.megabytes property
+     **/
+    public static synchronized TranspositionTable getShared() {
+        if (shared == null)
+            shared = new TranspositionTable(Integer.getInteger(MEGABYTES_PROPERTY, DEFAULT_MEGABYTES));
+        return shared;
+    }
+
+    /**
+     * Mixes the settings a search's stored results depend on into a key salt,
+     * so that searches which would score a position differently do not share
+     * entries.
+     *
+     * @param settings the engine name and every setting affecting its results
+     * @return a value to XOR into the search's keys
+     **/
+    public static long salt(Object... settings) {
+        long salt = 0x9E3779B97F4A7C15L;
+        for (Object setting : settings)
+            salt = mix(salt ^ String.valueOf(setting).hashCode());
+        return salt;
+    }
+
+    // splitmix64 finaliser
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // METHODS
+
+    /**
+     * Looks up a position.
+     *
+     * @param key   the position's key, salted
+     * @param entry filled in on a hit
+     * @return true on a hit
+     **/
+    public boolean probe(long key, Entry entry) {
+        probes.increment();
+        int bucket = bucket(key);
+        for (int e = 0; e < BUCKET_ENTRIES; e++) {
+            int i = bucket + e * ENTRY_LONGS;
+            long check = table[i];
+            long header = table[i + 1];
+            long data0 = table[i + 2];
+            long data1 = table[i + 3];
+            if (header == 0)
+                continue;
+            long stored = check ^ header ^ data0 ^ data1;
+            if (stored != key) {
+                if (stored >>> 48 != header >>> 48 || bucket(stored) != bucket)
+                    torn.increment();
+                continue;
+            }
+            entry.depth = (int) header;
+            entry.data0 = data0;
+            entry.data1 = data1;
+            hits.increment();
+            if ((int) (header >>> 40 & 0xFF) != owner())
+                sharedHits.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores a position, replacing its own entry, or the shallowest entry of
+     * its bucket with older searches' entries replaced first.
+     *
+     * @param key   the position's key, salted
+     * @param depth the entry's worth when choosing one to replace, for example
+     *              plies searched or playouts counted
+     * @param data0 first payload word
+     * @param data1 second payload word
+     **/
+    public void store(long key, int depth, long data0, long data1) {
+        stores.increment();
+        int bucket = bucket(key);
+        int current = generation & 0xFF;
+        int victim = bucket;
+        long victimWorth = Long.MAX_VALUE;
+        for (int e = 0; e < BUCKET_ENTRIES; e++) {
+            int i = bucket + e * ENTRY_LONGS;
+            long header = table[i + 1];
+            if (header == 0 || (table[i] ^ header ^ table[i + 2] ^ table[i + 3]) == key) {
+                victim = i;
+                break;
+            }
+            long worth = (int) (header >>> 32 & 0xFF) == current ? (int) header : Integer.MIN_VALUE;
+            if (worth <= victimWorth) {
+                victimWorth = worth;
+                victim = i;
+            }
+        }
+        long header = (key >>> 48) << 48 | (long) owner() << 40 | (long) current << 32 | (depth & 0xFFFFFFFFL);
+        table[victim] = key ^ header ^ data0 ^ data1;
+        table[victim + 1] = header;
+        table[victim + 2] = data0;
+        table[victim + 3] = data1;
+    }
+
+    /**
+     * Marks the start of a new search, so the entries of earlier ones are
+     * replaced first. Any search may call it, as often as once per move.
+     **/
+    public void newSearch() {
+        int next = generation + 1;
+        // 0 is kept for empty entries
+        generation = (next & 0xFF) == 0 ? next + 1 : next;
+    }
+
+    /**
+     * Empties the table and resets the metrics. Not safe while searches run.
+     **/
+    public void clear() {
+        Arrays.fill(table, 0);
+        probes.reset();
+        hits.reset();
+        sharedHits.reset();
+        stores.reset();
+        torn.reset();
+    }
+
+    private int bucket(long key) {
+        return ((int) key & bucketMask) * BUCKET_LONGS;
+    }
+
+    // a byte identifying the writing thread, for counting hits on other
+    // searches' entries
+    private static int owner() {
+        return (int) (Thread.currentThread().getId() & 0xFF);
+    }
+
+    /**
+     * @return the table's size in bytes
+     **/
+    public long getBytes() {
+        return table.length * 8L;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return hits on entries stored by another thread, the work shared
+     *         between concurrent searches
+     **/
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * @return entries found half written by a concurrent store and discarded
+     **/
+    public long getTorn() {
+        return torn.sum();
+    }
+
+    /**
+     * @return hits per probe
+     **/
+    public double hitRate() {
+        long probed = getProbes();
+        return probed == 0 ? 0 : (double) getHits() / probed;
+    }
+
+    /**
+     * @return the fraction of entries in use, sampled from the first buckets
+     **/
+    public double occupancy() {
+        int sample = Math.min(table.length / ENTRY_LONGS, 1 << 16);
+        int used = 0;
+        for (int e = 0; e < sample; e++)
+            if (table[e * ENTRY_LONGS + 1] != 0)
+                used++;
+        return (double) used / sample;
+    }
+
+    public String toString() {
+        return String.format("table %dMB, %d probes, hit rate %.1f%% (%d from other threads), %d stores, %d torn, "
+                + "occupancy %.1f%%", getBytes() >> 20, getProbes(), 100 * hitRate(), getSharedHits(), getStores(),
+                getTorn(), 100 * occupancy());
+    }
+
+    // SUPPLEMENTARY STRUCTURE
+
+    /**
+     * The data of a hit, reused between probes so a search allocates nothing.
+     **/
+    public static class Entry {
+        int depth;
+        long data0;
+        long data1;
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getData0() {
+            return data0;
+        }
+
+        public long getData1() {
+            return data1;
+        }
+    }
+}
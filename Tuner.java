@@ -0,0 +1,218 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Function;
+import threeChess.*;
+
+/**
+ * An offline SPSA tuner for agent constants. Each iteration perturbs every
+ * parameter at once by a random sign, plays a batch of parallel self-play games
+ * between the two perturbed agents and a fixed reference agent, and steps the
+ * parameters along the estimated score gradient. The result is written as an
+ * AgentParameters file that the agents load at construction.
+ *
+ **/
+public class Tuner {
+
+    // FIELDS
+    private final List<Knob> knobs = new ArrayList<Knob>();
+    private final Function<AgentParameters, Agent> factory;
+    private final AgentParameters base;
+    private int timeLimit = 10000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchRounds = 4;
+    private final Random random;
+
+    // SPSA gain sequences, in the normalised [0,1] parameter space
+    private double a = 0.1;
+    private double c = 0.1;
+    private double stability = 10;
+    private static final double ALPHA = 0.602;
+    private static final double GAMMA = 0.101;
+
+    /**
+     * @param factory creates the agent under test from a parameter set
+     * @param base    starting values, also used by the reference agent
+     * @param seed    seed for the perturbation signs
+     **/
+    public Tuner(Function<AgentParameters, Agent> factory, AgentParameters base, long seed) {
+        this.factory = factory;
+        this.base = base;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Adds a parameter to tune.
+     *
+     * @param key     property key, e.g. "MCTSAgent.rate"
+     * @param min     smallest allowed value
+     * @param max     largest allowed value
+     * @param initial starting value if the base set does not define it
+     * @param integer true if the value must be rounded to a whole number
+     **/
+    public void addKnob(String key, double min, double max, double initial, boolean integer) {
+        knobs.add(new Knob(key, min, max, base.getDouble(key, initial), integer));
+    }
+
+    /**
+     * @param timeLimit clock for each player in the tuning games, in ms
+     * @param threads   games run concurrently
+     * @param rounds    tournament rounds per iteration, six games each
+     **/
+    public void setTimeControl(int timeLimit, int threads, int rounds) {
+        this.timeLimit = timeLimit;
+        this.threads = threads;
+        this.batchRounds = rounds;
+    }
+
+    /**
+     * Sets the SPSA gains. Step size at iteration k is a / (k + stability)^0.602
+     * and perturbation size is c / k^0.101, both in units of each knob's range.
+     **/
+    public void setGains(double a, double c, double stability) {
+        this.a = a;
+        this.c = c;
+        this.stability = stability;
+    }
+
+    // METHODS
+
+    /**
+     * Runs the tuner.
+     *
+     * @param iterations number of SPSA iterations
+     * @return the tuned parameter set
+     **/
+    public AgentParameters tune(int iterations) {
+        int p = knobs.size();
+        double[] theta = new double[p];
+        for (int i = 0; i < p; i++)
+            theta[i] = knobs.get(i).normalise(knobs.get(i).initial);
+
+        for (int k = 1; k <= iterations; k++) {
+            double ak = a / Math.pow(k + stability, ALPHA);
+            double ck = c / Math.pow(k, GAMMA);
+            double[] delta = new double[p];
+            double[] plus = new double[p];
+            double[] minus = new double[p];
+            for (int i = 0; i < p; i++) {
+                delta[i] = random.nextBoolean() ? 1 : -1;
+                plus[i] = clamp(theta[i] + ck * delta[i]);
+                minus[i] = clamp(theta[i] - ck * delta[i]);
+            }
+
+            double[] scores = playBatch(toParameters(plus), toParameters(minus));
+            double difference = scores[0] - scores[1];
+            for (int i = 0; i < p; i++)
+                theta[i] = clamp(theta[i] + ak * difference / (2 * ck * delta[i]));
+
+            System.out.println(String.format("iteration %d: plus %.3f minus %.3f -> %s", k, scores[0], scores[1],
+                    toParameters(theta)));
+        }
+        return toParameters(theta);
+    }
+
+    /**
+     * Plays one batch between the two candidates and the reference agent.
+     *
+     * @return the mean points per game (+1 win, -1 loss) of plus and minus
+     **/
+    private double[] playBatch(AgentParameters plus, AgentParameters minus) {
+        Tournament tournament = new Tournament(timeLimit, threads);
+        tournament.addEntrant("plus", () -> factory.apply(plus));
+        tournament.addEntrant("minus", () -> factory.apply(minus));
+        tournament.addEntrant("reference", () -> factory.apply(base));
+        List<Tournament.GameResult> results = tournament.run(batchRounds);
+
+        double[] points = new double[3];
+        int[] games = new int[3];
+        for (Tournament.GameResult result : results) {
+            for (int seat = 0; seat < 3; seat++)
+                games[result.seats[seat]]++;
+            if (result.winner != null) {
+                points[result.seats[result.winner.ordinal()]] += 1;
+                points[result.seats[result.loser.ordinal()]] -= 1;
+            }
+        }
+        return new double[] { points[0] / Math.max(1, games[0]), points[1] / Math.max(1, games[1]) };
+    }
+
+    private AgentParameters toParameters(double[] theta) {
+        AgentParameters params = base.copy();
+        for (int i = 0; i < knobs.size(); i++) {
+            Knob knob = knobs.get(i);
+            double value = knob.denormalise(theta[i]);
+            if (knob.integer)
+                params.set(knob.key, (int) Math.round(value));
+            else
+                params.set(knob.key, value);
+        }
+        return params;
+    }
+
+    private static double clamp(double x) {
+        return Math.min(1, Math.max(0, x));
+    }
+
+    // SUPPLEMENTARY STRUCTURE
+
+    /**
+     * A tuned parameter and its allowed range.
+     **/
+    private static class Knob {
+        final String key;
+        final double min;
+        final double max;
+        final double initial;
+        final boolean integer;
+
+        Knob(String key, double min, double max, double initial, boolean integer) {
+            this.key = key;
+            this.min = min;
+            this.max = max;
+            this.initial = initial;
+            this.integer = integer;
+        }
+
+        double normalise(double value) {
+            return (value - min) / (max - min);
+        }
+
+        double denormalise(double x) {
+            return min + x * (max - min);
+        }
+    }
+
+    /**
+     * Tunes the MCTS or MaxN constants and writes the result.
+     *
+     * @param args agent ("mcts" or "maxn"), iterations, output file, and
+     *             optionally time limit in ms and rounds per iteration
+     **/
+    public static void main(String[] args) throws IOException {
+        String agent = args.length > 0 ? args[0] : "mcts";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String output = args.length > 2 ? args[2] : AgentParameters.DEFAULT_FILE;
+        int timeLimit = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        AgentParameters base = AgentParameters.getDefault().copy();
+        Tuner tuner;
+        if (agent.equalsIgnoreCase("maxn")) {
+            tuner = new Tuner(params -> new MaxNAgent(params), base, System.nanoTime());
+            tuner.addKnob("MaxNAgent.moveLimit", 1, 3, 2, true);
+            tuner.addKnob("MaxNAgent.lateTimeLimit", 0, 5000, 1000, true);
+        } else {
+            tuner = new Tuner(params -> new MCTSAgent(params), base, System.nanoTime());
+            tuner.addKnob("MCTSAgent.rate", 0.01, 0.5, 0.3, false);
+            tuner.addKnob("MCTSAgent.lateRate", 0.01, 0.5, 0.1, false);
+            tuner.addKnob("MCTSAgent.lateTimeLimit", 0, 5000, 1000, true);
+        }
+        tuner.setTimeControl(timeLimit, Runtime.getRuntime().availableProcessors(), rounds);
+
+        AgentParameters tuned = tuner.tune(iterations);
+        tuned.store(output, "tuned by SPSA over " + iterations + " iterations at " + timeLimit + "ms");
+        System.out.println("wrote " + output + ": " + tuned);
+    }
+}
@@ -0,0 +1,180 @@
+package threeChess.agents;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Supplier;
+import threeChess.*;
+
+/**
+ * JIT warm-up for the search agents. A JVM runs new code interpreted until
+ * the compilers have seen enough of it, so without warming up, an agent's
+ * first moves get a fraction of the playouts or nodes of later moves at the
+ * same time budget. Agents call once() from their constructor, off the game
+ * clock, which plays a burst of searches on built-in positions until the
+ * time cap: the start position and positions reached from it by seeded
+ * random play. Compiled code is shared by the whole JVM, so each engine is
+ * warmed once, by the first agent constructed.
+ *
+ * The warm-up agents are deterministic (see MCTSAgent.setSeed), so they do
+ * not ponder or fill the shared transposition table. The cap is checked
+ * between searches, so it may be exceeded by one search.
+ *
+ * Run as a program, it measures what warm-up gains: fresh JVMs with and
+ * without it time their first moves, and the playouts MCTS manages and the
+ * time MaxN takes are reported move by move.
+ *
+ * <pre>
+ * java threeChess.agents.Warmup [warmupMillis] [moveMillis] [moves]
+ * </pre>
+ *
+ **/
+public class Warmup {
+
+    // FIELDS
+    private static final int POSITIONS = 8;
+    private static final long SEED = 0x5EEDL;
+    private static final Set<String> warmed = Collections.synchronizedSet(new HashSet<String>());
+    private static final Map<String, Long> spent = Collections.synchronizedMap(new HashMap<String, Long>());
+
+    private Warmup() {
+    }
+
+    /**
+     * Warms an engine up, unless it has been already.
+     *
+     * @param engine name of the engine, warmed once per JVM
+     * @param millis time cap, 0 to skip
+     * @param agents makes the agent to search with
+     * @return milliseconds spent, 0 if it was already warm
+     **/
+    public static long once(String engine, long millis, Supplier<Agent> agents) {
+        if (millis <= 0 || !warmed.add(engine))
+            return 0;
+        long start = System.nanoTime();
+        long deadline = start + millis * 1000000L;
+        Agent agent = agents.get();
+        Board[] boards = positions();
+        for (int i = 0; System.nanoTime() < deadline; i = (i + 1) % boards.length) {
+            try {
+                agent.playMove((Board) boards[i].clone());
+            } catch (CloneNotSupportedException e) {
+                break;
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        spent.put(engine, elapsed);
+        return elapsed;
+    }
+
+    /**
+     * @return milliseconds spent warming an engine up, or null if it has not
+     *         been
+     **/
+    public static Long getSpent(String engine) {
+        return spent.get(engine);
+    }
+
+    /**
+     * @return the start position and middlegame positions reached by seeded
+     *         random play, each with moves left
+     **/
+    private static Board[] positions() {
+        FastRandom random = new FastRandom(SEED);
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(new Board(600000));
+        while (boards.size() < POSITIONS) {
+            Board board = new Board(600000);
+            int plies = 6 + random.nextInt(40);
+            try {
+                for (int i = 0; i < plies && !board.gameOver(); i++) {
+                    int count = new FastBoard(board).generateMoves(moves);
+                    if (count == 0)
+                        break;
+                    Position[] move = FastBoard.toPositions(moves[random.nextInt(count)]);
+                    board.move(move[0], move[1]);
+                }
+            } catch (ImpossiblePositionException e) {
+                continue;
+            }
+            if (!board.gameOver() && new FastBoard(board).generateMoves(moves) > 0)
+                boards.add(board);
+        }
+        return boards.toArray(new Board[0]);
+    }
+
+    // MEASUREMENT
+
+    /**
+     * @param args warm-up cap, time per move and number of moves measured
+     **/
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child(Long.parseLong(args[1]), Long.parseLong(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        long warmupMillis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        long moveMillis = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String[] cold = runChild(0, moveMillis, moves);
+        String[] warm = runChild(warmupMillis, moveMillis, moves);
+        System.out.println(String.format("%d moves of %dms, warm-up capped at %dms (took %s)", moves, moveMillis,
+                warmupMillis, warm[0]));
+        System.out.println("move   MCTS playouts cold / warm   MaxN ms cold / warm");
+        for (int m = 1; m <= moves; m++) {
+            String[] c = cold[m].split(" ");
+            String[] w = warm[m].split(" ");
+            System.out.println(String.format("%4d   %13s / %-10s %9s / %s", m, c[0], w[0], c[1], w[1]));
+        }
+    }
+
+    /**
+     * Runs the measurement in a fresh JVM, so that nothing is compiled yet.
+     *
+     * @return the time warm-up took, then per move the playouts and MaxN
+     *         milliseconds
+     **/
+    private static String[] runChild(long warmupMillis, long moveMillis, int moves) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Warmup.class.getName(), "child", Long.toString(warmupMillis), Long.toString(moveMillis),
+                Integer.toString(moves)).redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                if (line.startsWith("> "))
+                    lines.add(line.substring(2));
+        }
+        process.waitFor();
+        if (lines.size() < moves + 1)
+            throw new IllegalStateException("measurement failed");
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Constructs the agents with the warm-up cap given, then plays the first
+     * moves of a game with each, MCTS for a fixed time and MaxN to its depth.
+     **/
+    private static void child(long warmupMillis, long moveMillis, int moves) throws Exception {
+        Board board = new Board(600000);
+        AgentParameters params = AgentParameters.getDefault().copy();
+        params.set("MCTSAgent.warmupMillis", (int) warmupMillis);
+        params.set("MaxNAgent.warmupMillis", (int) warmupMillis);
+        params.set("MCTSAgent.rate", (double) moveMillis / board.getTimeLeft(board.getTurn()));
+        MCTSAgent mcts = new MCTSAgent(params);
+        MaxNAgent maxN = new MaxNAgent(params);
+        Long mctsSpent = getSpent("MCTS");
+        Long maxNSpent = getSpent("MaxN");
+        System.out.println("> " + (mctsSpent == null ? 0 : mctsSpent) + "ms MCTS, "
+                + (maxNSpent == null ? 0 : maxNSpent) + "ms MaxN");
+        for (int m = 0; m < moves && !board.gameOver(); m++) {
+            Position[] move = mcts.playMove(board);
+            long playouts = mcts.getLastPlayouts();
+            long start = System.nanoTime();
+            maxN.playMove(board);
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println("> " + playouts + " " + millis);
+            board.move(move[0], move[1]);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package threeChess.agents;
+
+import java.util.*;
+import threeChess.*;
+
+/**
+ * Zobrist hashing of board positions, for keying position caches. A key is the
+ * XOR of one random number per occupied square and piece, and one for the
+ * colour to move.
+ *
+ * Canonical keys hash the rotation of the position that puts BLUE to move (see
+ * Symmetry), so the three rotations of a position share one key. Each rotation
+ * has its own precomputed table of piece keys, so a canonical key costs the
+ * same as a plain one.
+ *
+ **/
+public class Zobrist {
+
+    // FIELDS
+    private static final Position[] POSITIONS = Position.values();
+    private static final int PIECE_KINDS = Colour.values().length * PieceType.values().length;
+    private static final long[] PIECE_KEYS = new long[POSITIONS.length * PIECE_KINDS];
+    private static final long[] TURN_KEYS = new long[Colour.values().length];
+    // ROTATED_KEYS[k] holds, per square and piece, the key of its image under
+    // rotation k
+    private static final long[][] ROTATED_KEYS = new long[Symmetry.ROTATIONS][PIECE_KEYS.length];
+
+    static {
+        // fixed seed so keys are stable between runs
+        Random random = new Random(0x3C4E55L);
+        for (int i = 0; i < PIECE_KEYS.length; i++)
+            PIECE_KEYS[i] = random.nextLong();
+        for (int i = 0; i < TURN_KEYS.length; i++)
+            TURN_KEYS[i] = random.nextLong();
+        int types = PieceType.values().length;
+        for (int k = 0; k < Symmetry.ROTATIONS; k++)
+            for (int square = 0; square < POSITIONS.length; square++)
+                for (int kind = 0; kind < PIECE_KINDS; kind++) {
+                    int colour = Symmetry.rotateColour(kind / types, k);
+                    ROTATED_KEYS[k][square * PIECE_KINDS + kind] = PIECE_KEYS[Symmetry.rotateSquare(square, k)
+                            * PIECE_KINDS + colour * types + kind % types];
+                }
+    }
+
+    private Zobrist() {
+    }
+
+    // METHODS
+
+    /**
+     * @param board the position to hash
+     * @return a 64 bit key for the piece placement and colour to move
+     **/
+    public static long hash(Board board) {
+        long key = TURN_KEYS[board.getTurn().ordinal()];
+        for (Position position : POSITIONS) {
+            Piece piece = board.getPiece(position);
+            if (piece != null)
+                key ^= pieceKey(piece.getColour(), piece.getType(), position);
+        }
+        return key;
+    }
+
+    /**
+     * @param board the position to hash
+     * @return the key of the position rotated to put BLUE to move, the same
+     *         for all three rotations of the position
+     **/
+    public static long canonicalHash(Board board) {
+        long[] keys = ROTATED_KEYS[Symmetry.canonicalRotation(board.getTurn().ordinal())];
+        long key = TURN_KEYS[0];
+        for (Position position : POSITIONS) {
+            Piece piece = board.getPiece(position);
+            if (piece != null)
+                key ^= keys[position.ordinal() * PIECE_KINDS + piece.getColour().ordinal()
+                        * PieceType.values().length + piece.getType().ordinal()];
+        }
+        return key;
+    }
+
+    /**
+     * @param board the position to hash
+     * @return the same key as hash gives for the equivalent Board
+     **/
+    public static long hash(FastBoard board) {
+        return hash(board, PIECE_KEYS, board.getTurn());
+    }
+
+    /**
+     * @param board the position to hash
+     * @return the same key as canonicalHash gives for the equivalent Board
+     **/
+    public static long canonicalHash(FastBoard board) {
+        return hash(board, ROTATED_KEYS[Symmetry.canonicalRotation(board.getTurn())], 0);
+    }
+
+    // FastBoard piece codes are 1 + colour * types + type, one more than the
+    // index of the piece in a square's keys
+    private static long hash(FastBoard board, long[] keys, int turn) {
+        long key = TURN_KEYS[turn];
+        for (int square = 0; square < FastBoard.SQUARES; square++) {
+            int piece = board.getPiece(square);
+            if (piece != FastBoard.EMPTY)
+                key ^= keys[square * PIECE_KINDS + piece - 1];
+        }
+        return key;
+    }
+
+    /**
+     * @return the key contribution of a piece standing on a square
+     **/
+    public static long pieceKey(Colour colour, PieceType type, Position position) {
+        return PIECE_KEYS[position.ordinal() * PIECE_KINDS + colour.ordinal() * PieceType.values().length
+                + type.ordinal()];
+    }
+
+    /**
+     * @return the key contribution of the colour to move
+     **/
+    public static long turnKey(Colour colour) {
+        return TURN_KEYS[colour.ordinal()];
+    }
+}
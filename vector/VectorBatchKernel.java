@@ -0,0 +1,41 @@
+package threeChess.agents;
+
+import jdk.incubator.vector.*;
+
+/**
+ * The SIMD kernel of BatchEvaluator, on the preferred lane width of the
+ * platform. It needs the incubating Vector API, so it lives apart from the
+ * other agents, in vector/, and is compiled in a separate optional step with
+ * --add-modules jdk.incubator.vector (see README.md); the agents must then
+ * also run with the flag. Without this class or the module, BatchEvaluator
+ * fails to load it and uses its scalar loop.
+ *
+ **/
+final class VectorBatchKernel implements BatchEvaluator.Kernel {
+
+    // FIELDS
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public void run(int count, int mover, int[] base, int[] victim, int[] moverDelta, int[] victimLoss,
+            int[] utility) {
+        int upper = SPECIES.loopBound(count);
+        for (int c = 0; c < 3; c++) {
+            int offset = c * BatchEvaluator.STRIDE;
+            IntVector value = IntVector.broadcast(SPECIES, base[c]);
+            int i = 0;
+            if (c == mover) {
+                for (; i < upper; i += SPECIES.length())
+                    value.add(IntVector.fromArray(SPECIES, moverDelta, i)).intoArray(utility, offset + i);
+                for (; i < count; i++)
+                    utility[offset + i] = base[c] + moverDelta[i];
+            } else {
+                for (; i < upper; i += SPECIES.length()) {
+                    VectorMask<Integer> hit = IntVector.fromArray(SPECIES, victim, i).eq(c);
+                    value.sub(IntVector.fromArray(SPECIES, victimLoss, i), hit).intoArray(utility, offset + i);
+                }
+                for (; i < count; i++)
+                    utility[offset + i] = victim[i] == c ? base[c] - victimLoss[i] : base[c];
+            }
+        }
+    }
+}